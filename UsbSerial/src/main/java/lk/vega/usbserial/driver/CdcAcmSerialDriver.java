@@ -26,12 +26,10 @@ import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
-import android.hardware.usb.UsbRequest;
 import android.os.Build;
 import android.util.Log;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -88,6 +86,18 @@ public class CdcAcmSerialDriver implements UsbSerialDriver {
         private static final int SET_CONTROL_LINE_STATE = 0x22;
         private static final int SEND_BREAK = 0x23;
 
+        /**
+         * Number of requests {@link #read(byte[], int)} keeps in flight when
+         * async reads are enabled.
+         */
+        private static final int ASYNC_READ_REQUEST_COUNT = 8;
+
+        /**
+         * Serves {@link #read(byte[], int)} when async reads are enabled.
+         * Created by the first read. Guarded by {@link #mReadBufferLock}.
+         */
+        private UsbReadPipeline mReadEngine;
+
         public CdcAcmSerialPort(UsbDevice device, int portNumber) {
             super(device, portNumber);
             mEnableAsyncReads = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1);
@@ -98,6 +108,24 @@ public class CdcAcmSerialDriver implements UsbSerialDriver {
             return CdcAcmSerialDriver.this;
         }
 
+        @Override
+        protected UsbEndpoint getReadEndpoint() {
+            return mReadEndpoint;
+        }
+
+        @Override
+        protected UsbEndpoint getWriteEndpoint() {
+            return mWriteEndpoint;
+        }
+
+        @Override
+        protected UsbReadPipeline newReadPipeline(UsbEndpoint endpoint, int requestCount, int requestSize) {
+            // Only one pipeline may wait for the requests of the connection
+            closeReadEngine();
+            return new UsbReadPipeline(mConnection, endpoint, requestCount, requestSize,
+                    UsbReadPipeline.DEFAULT_RING_CAPACITY);
+        }
+
         @Override
         public void open(UsbDeviceConnection connection) throws IOException {
             if (mConnection != null) {
@@ -153,36 +181,36 @@ public class CdcAcmSerialDriver implements UsbSerialDriver {
             if (mConnection == null) {
                 throw new IOException("Already closed");
             }
+            closeReadEngine();
             mConnection.close();
             mConnection = null;
         }
 
+        private void closeReadEngine() {
+            final UsbReadPipeline readEngine;
+            synchronized (mReadBufferLock) {
+                readEngine = mReadEngine;
+                mReadEngine = null;
+            }
+            if (readEngine != null) {
+                readEngine.close();
+            }
+        }
+
         @Override
         public int read(byte[] dest, int timeoutMillis) throws IOException {
             if (mEnableAsyncReads) {
-              final UsbRequest request = new UsbRequest();
-              try {
-                request.initialize(mConnection, mReadEndpoint);
-                final ByteBuffer buf = ByteBuffer.wrap(dest);
-                if (!request.queue(buf, dest.length)) {
-                  throw new IOException("Error queueing request.");
-                }
-
-                final UsbRequest response = mConnection.requestWait();
-                if (response == null) {
-                  throw new IOException("Null response");
-                }
-
-                final int nread = buf.position();
-                if (nread > 0) {
-                  //Log.d(TAG, HexDump.dumpHexString(dest, 0, Math.min(32, dest.length)));
-                  return nread;
-                } else {
-                  return 0;
+                // The requests are reused, and stay queued while the caller handles the data
+                UsbReadPipeline readEngine;
+                synchronized (mReadBufferLock) {
+                    readEngine = mReadEngine;
+                    if (readEngine == null) {
+                        readEngine = newReadPipeline(mReadEndpoint, ASYNC_READ_REQUEST_COUNT, mReadBuffer.length);
+                        readEngine.start();
+                        mReadEngine = readEngine;
+                    }
                 }
-              } finally {
-                request.close();
-              }
+                return readEngine.read(dest, timeoutMillis);
             }
 
             final int numBytesRead;
@@ -207,38 +235,8 @@ public class CdcAcmSerialDriver implements UsbSerialDriver {
         }
 
         @Override
-        public int write(byte[] src, int timeoutMillis) throws IOException {
-            // TODO(mikey): Nearly identical to FtdiSerial write. Refactor.
-            int offset = 0;
-
-            while (offset < src.length) {
-                final int writeLength;
-                final int amtWritten;
-
-                synchronized (mWriteBufferLock) {
-                    final byte[] writeBuffer;
-
-                    writeLength = Math.min(src.length - offset, mWriteBuffer.length);
-                    if (offset == 0) {
-                        writeBuffer = src;
-                    } else {
-                        // bulkTransfer does not support offsets, make a copy.
-                        System.arraycopy(src, offset, mWriteBuffer, 0, writeLength);
-                        writeBuffer = mWriteBuffer;
-                    }
-
-                    amtWritten = mConnection.bulkTransfer(mWriteEndpoint, writeBuffer, writeLength,
-                            timeoutMillis);
-                }
-                if (amtWritten <= 0) {
-                    throw new IOException("Error writing " + writeLength
-                            + " bytes at offset " + offset + " length=" + src.length);
-                }
-
-                Log.d(TAG, "Wrote amt=" + amtWritten + " attempted=" + writeLength);
-                offset += amtWritten;
-            }
-            return offset;
+        public int write(byte[] src, int offset, int length, int timeoutMillis) throws IOException {
+            return bulkWrite(mWriteEndpoint, src, offset, length, timeoutMillis);
         }
 
         @Override
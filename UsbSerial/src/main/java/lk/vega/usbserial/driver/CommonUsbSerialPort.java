@@ -23,6 +23,7 @@ package lk.vega.usbserial.driver;
 
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
 
 import java.io.IOException;
 
@@ -51,6 +52,14 @@ abstract class CommonUsbSerialPort implements UsbSerialPort {
     /** Internal write buffer.  Guarded by {@link #mWriteBufferLock}. */
     protected byte[] mWriteBuffer;
 
+    private final Object mModemStatusLock = new Object();
+
+    /** Guarded by {@link #mModemStatusLock}. */
+    private ModemStatusListener mModemStatusListener;
+
+    /** Last status reported, -1 if none.  Guarded by {@link #mModemStatusLock}. */
+    private int mReportedModemStatus = -1;
+
     public CommonUsbSerialPort(UsbDevice device, int portNumber) {
         mDevice = device;
         mPortNumber = portNumber;
@@ -129,7 +138,53 @@ abstract class CommonUsbSerialPort implements UsbSerialPort {
     public abstract int read(final byte[] dest, final int timeoutMillis) throws IOException;
 
     @Override
-    public abstract int write(final byte[] src, final int timeoutMillis) throws IOException;
+    public int write(final byte[] src, final int timeoutMillis) throws IOException {
+        return write(src, 0, src.length, timeoutMillis);
+    }
+
+    @Override
+    public abstract int write(byte[] src, int offset, int length, int timeoutMillis) throws IOException;
+
+    @Override
+    public int getWritePacketSize() {
+        final UsbEndpoint endpoint = mConnection != null ? getWriteEndpoint() : null;
+        return endpoint != null ? endpoint.getMaxPacketSize() : 0;
+    }
+
+    @Override
+    public int getReadPacketSize() {
+        final UsbEndpoint endpoint = mConnection != null ? getReadEndpoint() : null;
+        return endpoint != null ? endpoint.getMaxPacketSize() : 0;
+    }
+
+    /**
+     * Writes to a bulk endpoint in transfers of up to the write buffer size.
+     * The data is transferred from src at its offset, without being copied.
+     *
+     * @return the number of bytes written
+     * @throws IOException if a transfer fails
+     */
+    protected int bulkWrite(UsbEndpoint endpoint, byte[] src, int offset, int length, int timeoutMillis)
+            throws IOException {
+        final int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            final int writeLength;
+            final int amtWritten;
+
+            synchronized (mWriteBufferLock) {
+                // mWriteBuffer is only used for the maximum transfer size.
+                writeLength = Math.min(end - position, mWriteBuffer.length);
+                amtWritten = mConnection.bulkTransfer(endpoint, src, position, writeLength, timeoutMillis);
+            }
+            if (amtWritten <= 0) {
+                throw new IOException("Error writing " + writeLength
+                        + " bytes at offset " + (position - offset) + " length=" + length);
+            }
+            position += amtWritten;
+        }
+        return length;
+    }
 
     @Override
     public abstract void setParameters(
@@ -164,4 +219,76 @@ abstract class CommonUsbSerialPort implements UsbSerialPort {
         return !flushReadBuffers && !flushWriteBuffers;
     }
 
+    @Override
+    public UsbReadPipeline createReadPipeline(int requestCount) throws IOException {
+        if (mConnection == null) {
+            throw new IOException("Port not open");
+        }
+        final UsbEndpoint endpoint = getReadEndpoint();
+        if (endpoint == null || !UsbReadPipeline.isSupported()) {
+            return null;
+        }
+        synchronized (mReadBufferLock) {
+            return newReadPipeline(endpoint, requestCount, mReadBuffer.length);
+        }
+    }
+
+    @Override
+    public void setModemStatusListener(ModemStatusListener listener) {
+        synchronized (mModemStatusLock) {
+            mModemStatusListener = listener;
+            mReportedModemStatus = -1;
+        }
+    }
+
+    /**
+     * Called by ports with each modem status they see. Notifies the
+     * {@link ModemStatusListener} if the status changed.
+     *
+     * @param modemStatus the {@link #MODEM_STATUS_CD} and following bits
+     *            which are set
+     */
+    protected void onModemStatus(int modemStatus) {
+        final ModemStatusListener listener;
+        final int changed;
+        synchronized (mModemStatusLock) {
+            if (mModemStatusListener == null || modemStatus == mReportedModemStatus) {
+                return;
+            }
+            listener = mModemStatusListener;
+            changed = mReportedModemStatus < 0
+                    ? MODEM_STATUS_CD | MODEM_STATUS_CTS | MODEM_STATUS_DSR | MODEM_STATUS_RI
+                    : modemStatus ^ mReportedModemStatus;
+            mReportedModemStatus = modemStatus;
+        }
+        listener.onModemStatusChanged(this, modemStatus, changed);
+    }
+
+    /**
+     * Creates the read pipeline of {@link #createReadPipeline(int)}. Ports
+     * which add headers to the read data override this.
+     */
+    protected UsbReadPipeline newReadPipeline(UsbEndpoint endpoint, int requestCount, int requestSize) {
+        return new UsbReadPipeline(mConnection, endpoint, requestCount, requestSize);
+    }
+
+    /**
+     * Returns the bulk endpoint data is read from, once the port is open.
+     *
+     * @return the endpoint, or {@code null} if the port does not support
+     * asynchronous reads
+     */
+    protected UsbEndpoint getReadEndpoint() {
+        return null;
+    }
+
+    /**
+     * Returns the bulk endpoint data is written to, once the port is open.
+     *
+     * @return the endpoint, or {@code null} if not known
+     */
+    protected UsbEndpoint getWriteEndpoint() {
+        return null;
+    }
+
 }
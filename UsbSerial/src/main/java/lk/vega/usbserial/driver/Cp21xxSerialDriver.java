@@ -113,6 +113,16 @@ public class Cp21xxSerialDriver implements UsbSerialDriver {
             return Cp21xxSerialDriver.this;
         }
 
+        @Override
+        protected UsbEndpoint getReadEndpoint() {
+            return mReadEndpoint;
+        }
+
+        @Override
+        protected UsbEndpoint getWriteEndpoint() {
+            return mWriteEndpoint;
+        }
+
         private int setConfigSingle(int request, int value) {
             return mConnection.controlTransfer(REQTYPE_HOST_TO_DEVICE, request, value,
                     0, null, 0, USB_WRITE_TIMEOUT_MILLIS);
@@ -197,37 +207,8 @@ public class Cp21xxSerialDriver implements UsbSerialDriver {
         }
 
         @Override
-        public int write(byte[] src, int timeoutMillis) throws IOException {
-            int offset = 0;
-
-            while (offset < src.length) {
-                final int writeLength;
-                final int amtWritten;
-
-                synchronized (mWriteBufferLock) {
-                    final byte[] writeBuffer;
-
-                    writeLength = Math.min(src.length - offset, mWriteBuffer.length);
-                    if (offset == 0) {
-                        writeBuffer = src;
-                    } else {
-                        // bulkTransfer does not support offsets, make a copy.
-                        System.arraycopy(src, offset, mWriteBuffer, 0, writeLength);
-                        writeBuffer = mWriteBuffer;
-                    }
-
-                    amtWritten = mConnection.bulkTransfer(mWriteEndpoint, writeBuffer, writeLength,
-                            timeoutMillis);
-                }
-                if (amtWritten <= 0) {
-                    throw new IOException("Error writing " + writeLength
-                            + " bytes at offset " + offset + " length=" + src.length);
-                }
-
-                Log.d(TAG, "Wrote amt=" + amtWritten + " attempted=" + writeLength);
-                offset += amtWritten;
-            }
-            return offset;
+        public int write(byte[] src, int offset, int length, int timeoutMillis) throws IOException {
+            return bulkWrite(mWriteEndpoint, src, offset, length, timeoutMillis);
         }
 
         private void setBaudRate(int baudRate) throws IOException {
@@ -35,8 +35,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import lk.vega.usbserial.util.HexDump;
-
 /**
  * A {@link CommonUsbSerialPort} implementation for a variety of FTDI devices
  * <p>
@@ -66,6 +64,9 @@ import lk.vega.usbserial.util.HexDump;
  * {@link CommonUsbSerialPort#write(byte[], int)}.</li>
  * <li>Setting serial line parameters (see
  * {@link CommonUsbSerialPort#setParameters(int, int, int, int)}.</li>
+ * <li>Setting the latency timer and USB transfer size, which trade latency
+ * against throughput (see {@link FtdiSerialPort#setLatencyTimer(int)} and
+ * {@link FtdiSerialPort#setTransferSize(int)}.</li>
  * </ul>
  * </p>
  * <p>
@@ -81,6 +82,8 @@ import lk.vega.usbserial.util.HexDump;
  * <li>{@value lk.vega.usbserial.driver.FtdiSerialDriver.DeviceType#TYPE_2232C}</li>
  * <li>{@value lk.vega.usbserial.driver.FtdiSerialDriver.DeviceType#TYPE_2232H}</li>
  * <li>{@value lk.vega.usbserial.driver.FtdiSerialDriver.DeviceType#TYPE_4232H}</li>
+ * <li>{@value lk.vega.usbserial.driver.FtdiSerialDriver.DeviceType#TYPE_232H}</li>
+ * <li>{@value lk.vega.usbserial.driver.FtdiSerialDriver.DeviceType#TYPE_X}</li>
  * <li>{@value lk.vega.usbserial.driver.FtdiSerialDriver.DeviceType#TYPE_AM}</li>
  * <li>{@value lk.vega.usbserial.driver.FtdiSerialDriver.DeviceType#TYPE_BM}</li>
  * </ul>
@@ -101,7 +104,38 @@ public class FtdiSerialDriver implements UsbSerialDriver {
      * FTDI chip types.
      */
     private static enum DeviceType {
-        TYPE_BM, TYPE_AM, TYPE_2232C, TYPE_R, TYPE_2232H, TYPE_4232H;
+        TYPE_BM, TYPE_AM, TYPE_2232C, TYPE_R, TYPE_2232H, TYPE_4232H, TYPE_232H, TYPE_X;
+
+        /**
+         * Identifies the chip from the device descriptor, like libftdi does.
+         *
+         * @param bcdDevice the device release number
+         * @param serialNumberIndex the iSerialNumber string index
+         * @return the chip type, {@link #TYPE_R} if the release is unknown
+         */
+        static DeviceType fromDescriptor(int bcdDevice, int serialNumberIndex) {
+            switch (bcdDevice) {
+                case 0x0200:
+                    // BM chips without a serial number report the AM release
+                    return serialNumberIndex == 0 ? TYPE_BM : TYPE_AM;
+                case 0x0400:
+                    return TYPE_BM;
+                case 0x0500:
+                    return TYPE_2232C;
+                case 0x0600:
+                    return TYPE_R;
+                case 0x0700:
+                    return TYPE_2232H;
+                case 0x0800:
+                    return TYPE_4232H;
+                case 0x0900:
+                    return TYPE_232H;
+                case 0x1000:
+                    return TYPE_X;
+                default:
+                    return TYPE_R;
+            }
+        }
     }
 
     public FtdiSerialDriver(UsbDevice device) {
@@ -118,7 +152,12 @@ public class FtdiSerialDriver implements UsbSerialDriver {
         return Collections.singletonList(mPort);
     }
 
-    private class FtdiSerialPort extends CommonUsbSerialPort {
+    /**
+     * The port of an FTDI device. Besides the {@link UsbSerialPort} API, it
+     * configures the latency timer, USB transfer size and event and error
+     * characters of the chip.
+     */
+    public class FtdiSerialPort extends CommonUsbSerialPort {
 
         public static final int USB_TYPE_STANDARD = 0x00 << 5;
         public static final int USB_TYPE_CLASS = 0x00 << 5;
@@ -162,6 +201,49 @@ public class FtdiSerialDriver implements UsbSerialDriver {
          */
         private static final int SIO_SET_DATA_REQUEST = 4;
 
+        /**
+         * Get the modem and line status.
+         */
+        private static final int SIO_POLL_MODEM_STATUS_REQUEST = 5;
+
+        /**
+         * Set the event character.
+         */
+        private static final int SIO_SET_EVENT_CHAR_REQUEST = 6;
+
+        /**
+         * Set the error character.
+         */
+        private static final int SIO_SET_ERROR_CHAR_REQUEST = 7;
+
+        /**
+         * Set the latency timer.
+         */
+        private static final int SIO_SET_LATENCY_TIMER_REQUEST = 9;
+
+        /**
+         * Get the latency timer.
+         */
+        private static final int SIO_GET_LATENCY_TIMER_REQUEST = 10;
+
+        /**
+         * Enables the event or error character in the value of its request.
+         */
+        private static final int SIO_CHAR_ENABLE = 0x100;
+
+        /**
+         * Latency timer of the chip after a reset.
+         */
+        public static final int DEFAULT_LATENCY_TIMER_MILLIS = 16;
+
+        public static final int MIN_LATENCY_TIMER_MILLIS = 1;
+        public static final int MAX_LATENCY_TIMER_MILLIS = 255;
+
+        /**
+         * Largest USB transfer size, see {@link #setTransferSize(int)}.
+         */
+        public static final int MAX_TRANSFER_SIZE = 64 * 1024;
+
         private static final int SIO_RESET_SIO = 0;
         private static final int SIO_RESET_PURGE_RX = 1;
         private static final int SIO_RESET_PURGE_TX = 2;
@@ -177,13 +259,42 @@ public class FtdiSerialDriver implements UsbSerialDriver {
          */
         private static final int MODEM_STATUS_HEADER_LENGTH = 2;
 
+        /**
+         * Bits of the modem status, the first byte of the header.
+         */
+        private static final int STATUS_FLAG_CTS = 0x10;
+        private static final int STATUS_FLAG_DSR = 0x20;
+        private static final int STATUS_FLAG_RI = 0x40;
+        private static final int STATUS_FLAG_CD = 0x80;
+
+        /**
+         * Bits of the line status, the second byte of the header.
+         */
+        public static final int LINE_STATUS_OVERRUN = 0x02;
+        public static final int LINE_STATUS_PARITY_ERROR = 0x04;
+        public static final int LINE_STATUS_FRAMING_ERROR = 0x08;
+        public static final int LINE_STATUS_BREAK = 0x10;
+
+        /**
+         * Offsets of the release number and serial number index in the
+         * device descriptor.
+         */
+        private static final int DESCRIPTOR_BCD_DEVICE_OFFSET = 12;
+        private static final int DESCRIPTOR_SERIAL_NUMBER_OFFSET = 16;
+
         private final String TAG = FtdiSerialDriver.class.getSimpleName();
 
         private DeviceType mType;
 
         private int mInterface = 0; /* INTERFACE_ANY */
 
-        private int mMaxPacketSize = 64; // TODO(mikey): detect
+        private int mMaxPacketSize = 64;
+
+        /**
+         * Header of the last packet read, modem status in the low byte and
+         * line status in the high byte, or -1 before the first read.
+         */
+        private volatile int mStatus = -1;
 
         /**
          * Due to http://b.android.com/28023 , we cannot use UsbRequest async reads
@@ -192,6 +303,61 @@ public class FtdiSerialDriver implements UsbSerialDriver {
          */
         private static final boolean ENABLE_ASYNC_READS = false;
 
+        /**
+         * @return the chip type, detected when the port is opened
+         */
+        public String getChipType() {
+            return mType == null ? null : mType.name();
+        }
+
+        /**
+         * @return the max packet size of the read endpoint, 64 bytes for
+         * full speed chips and 512 bytes for high speed chips
+         */
+        public int getMaxPacketSize() {
+            return mMaxPacketSize;
+        }
+
+        /**
+         * Returns the modem status bits, see {@link #MODEM_STATUS_CD} and
+         * the following. The status is taken from the header of the last
+         * packet read, or asked from the chip if nothing has been read yet.
+         */
+        public int getModemStatus() throws IOException {
+            return toModemStatus(getStatus());
+        }
+
+        private int toModemStatus(int status) {
+            return ((status & STATUS_FLAG_CD) != 0 ? MODEM_STATUS_CD : 0)
+                    | ((status & STATUS_FLAG_CTS) != 0 ? MODEM_STATUS_CTS : 0)
+                    | ((status & STATUS_FLAG_DSR) != 0 ? MODEM_STATUS_DSR : 0)
+                    | ((status & STATUS_FLAG_RI) != 0 ? MODEM_STATUS_RI : 0);
+        }
+
+        /**
+         * Returns the line status bits of the last packet read, see
+         * {@link #LINE_STATUS_OVERRUN} and the following.
+         */
+        public int getLineStatus() throws IOException {
+            return (getStatus() >> 8) & 0xff;
+        }
+
+        private int getStatus() throws IOException {
+            int status = mStatus;
+            if (status < 0) {
+                checkOpen();
+                final byte[] header = new byte[MODEM_STATUS_HEADER_LENGTH];
+                int result = mConnection.controlTransfer(FTDI_DEVICE_IN_REQTYPE,
+                        SIO_POLL_MODEM_STATUS_REQUEST, 0, 0 /* index */,
+                        header, header.length, USB_READ_TIMEOUT_MILLIS);
+                if (result != header.length) {
+                    throw new IOException("Getting modem status failed: result=" + result);
+                }
+                status = (header[0] & 0xff) | ((header[1] & 0xff) << 8);
+            }
+            return status;
+        }
+
         public FtdiSerialPort(UsbDevice device, int portNumber) {
             super(device, portNumber);
         }
@@ -201,30 +367,59 @@ public class FtdiSerialDriver implements UsbSerialDriver {
             return FtdiSerialDriver.this;
         }
 
+        @Override
+        protected UsbEndpoint getReadEndpoint() {
+            return mDevice.getInterface(0).getEndpoint(0);
+        }
+
+        @Override
+        protected UsbEndpoint getWriteEndpoint() {
+            return mDevice.getInterface(0).getEndpoint(1);
+        }
+
+        @Override
+        protected UsbReadPipeline newReadPipeline(UsbEndpoint endpoint, int requestCount, int requestSize) {
+            final int maxPacketSize = endpoint.getMaxPacketSize();
+            return new UsbReadPipeline(mConnection, endpoint, requestCount, requestSize) {
+                @Override
+                protected int onTransferComplete(byte[] data, int length) {
+                    // Every packet starts with the modem status
+                    return length < MODEM_STATUS_HEADER_LENGTH ? 0
+                            : filterStatusBytes(data, data, length, maxPacketSize);
+                }
+            };
+        }
+
         /**
-         * Filter FTDI status bytes from buffer
+         * Strips the modem status header from every packet in one pass,
+         * moving the payload down over the headers, and records the status
+         * of the last packet.
          * @param src The source buffer (which contains status bytes)
-         * @param dest The destination buffer to write the status bytes into (can be src)
+         * @param dest The destination buffer to write the payload into (can be src)
          * @param totalBytesRead Number of bytes read to src
          * @param maxPacketSize The USB endpoint max packet size
          * @return The number of payload bytes
          */
-        private final int filterStatusBytes(byte[] src, byte[] dest, int totalBytesRead, int maxPacketSize) {
-            final int packetsCount = totalBytesRead / maxPacketSize + (totalBytesRead % maxPacketSize == 0 ? 0 : 1);
-            for (int packetIdx = 0; packetIdx < packetsCount; ++packetIdx) {
-                final int count = (packetIdx == (packetsCount - 1))
-                        ? (totalBytesRead % maxPacketSize) - MODEM_STATUS_HEADER_LENGTH
-                        : maxPacketSize - MODEM_STATUS_HEADER_LENGTH;
-                if (count > 0) {
-                    System.arraycopy(src,
-                            packetIdx * maxPacketSize + MODEM_STATUS_HEADER_LENGTH,
-                            dest,
-                            packetIdx * (maxPacketSize - MODEM_STATUS_HEADER_LENGTH),
-                            count);
+        private int filterStatusBytes(byte[] src, byte[] dest, int totalBytesRead, int maxPacketSize) {
+            int destPos = 0;
+            int status = -1;
+            for (int packetPos = 0; packetPos < totalBytesRead; packetPos += maxPacketSize) {
+                final int payloadPos = packetPos + MODEM_STATUS_HEADER_LENGTH;
+                if (payloadPos > totalBytesRead) {
+                    break;
+                }
+                status = (src[packetPos] & 0xff) | ((src[packetPos + 1] & 0xff) << 8);
+                final int count = Math.min(packetPos + maxPacketSize, totalBytesRead) - payloadPos;
+                if (count > 0 && (src != dest || destPos != payloadPos)) {
+                    System.arraycopy(src, payloadPos, dest, destPos, count);
                 }
+                destPos += count;
             }
-
-          return totalBytesRead - (packetsCount * 2);
+            if (status >= 0) {
+                mStatus = status;
+                onModemStatus(toModemStatus(status));
+            }
+            return destPos;
         }
 
         public void reset() throws IOException {
@@ -233,9 +428,23 @@ public class FtdiSerialDriver implements UsbSerialDriver {
             if (result != 0) {
                 throw new IOException("Reset failed: result=" + result);
             }
+            detectDevice();
+        }
 
-            // TODO(mikey): autodetect.
-            mType = DeviceType.TYPE_R;
+        private void detectDevice() {
+            final byte[] descriptors = mConnection.getRawDescriptors();
+            if (descriptors != null && descriptors.length > DESCRIPTOR_SERIAL_NUMBER_OFFSET) {
+                final int bcdDevice = (descriptors[DESCRIPTOR_BCD_DEVICE_OFFSET] & 0xff)
+                        | ((descriptors[DESCRIPTOR_BCD_DEVICE_OFFSET + 1] & 0xff) << 8);
+                mType = DeviceType.fromDescriptor(bcdDevice, descriptors[DESCRIPTOR_SERIAL_NUMBER_OFFSET]);
+            } else {
+                mType = DeviceType.TYPE_R;
+            }
+            final int maxPacketSize = getReadEndpoint().getMaxPacketSize();
+            if (maxPacketSize > 0) {
+                mMaxPacketSize = maxPacketSize;
+            }
+            Log.d(TAG, "Detected " + mType + " with " + mMaxPacketSize + " byte packets");
         }
 
         @Override
@@ -244,6 +453,7 @@ public class FtdiSerialDriver implements UsbSerialDriver {
                 throw new IOException("Already open");
             }
             mConnection = connection;
+            mStatus = -1;
 
             boolean opened = false;
             try {
@@ -302,62 +512,42 @@ public class FtdiSerialDriver implements UsbSerialDriver {
 
                 final int payloadBytesRead = buf.position() - MODEM_STATUS_HEADER_LENGTH;
                 if (payloadBytesRead > 0) {
-                    Log.d(TAG, HexDump.dumpHexString(dest, 0, Math.min(32, dest.length)));
+                    Log.d(TAG, "Read " + payloadBytesRead + " bytes");
                     return payloadBytesRead;
                 } else {
                     return 0;
                 }
             } else {
+                final int maxPacketSize = mMaxPacketSize;
                 final int totalBytesRead;
 
                 synchronized (mReadBufferLock) {
                     final int readAmt = Math.min(dest.length, mReadBuffer.length);
-                    totalBytesRead = mConnection.bulkTransfer(endpoint, mReadBuffer,
-                            readAmt, timeoutMillis);
-
-                    if (totalBytesRead < MODEM_STATUS_HEADER_LENGTH) {
-                        throw new IOException("Expected at least " + MODEM_STATUS_HEADER_LENGTH + " bytes");
+                    if (readAmt >= maxPacketSize) {
+                        // Whole packets are read straight into dest, and the headers removed in place
+                        totalBytesRead = mConnection.bulkTransfer(endpoint, dest,
+                                readAmt - readAmt % maxPacketSize, timeoutMillis);
+                        checkStatusHeader(totalBytesRead);
+                        return filterStatusBytes(dest, dest, totalBytesRead, maxPacketSize);
                     }
 
-                    return filterStatusBytes(mReadBuffer, dest, totalBytesRead, endpoint.getMaxPacketSize());
+                    // dest is smaller than a packet, so the headers are removed while copying
+                    totalBytesRead = mConnection.bulkTransfer(endpoint, mReadBuffer, readAmt, timeoutMillis);
+                    checkStatusHeader(totalBytesRead);
+                    return filterStatusBytes(mReadBuffer, dest, totalBytesRead, maxPacketSize);
                 }
             }
         }
 
-        @Override
-        public int write(byte[] src, int timeoutMillis) throws IOException {
-            final UsbEndpoint endpoint = mDevice.getInterface(0).getEndpoint(1);
-            int offset = 0;
-
-            while (offset < src.length) {
-                final int writeLength;
-                final int amtWritten;
-
-                synchronized (mWriteBufferLock) {
-                    final byte[] writeBuffer;
-
-                    writeLength = Math.min(src.length - offset, mWriteBuffer.length);
-                    if (offset == 0) {
-                        writeBuffer = src;
-                    } else {
-                        // bulkTransfer does not support offsets, make a copy.
-                        System.arraycopy(src, offset, mWriteBuffer, 0, writeLength);
-                        writeBuffer = mWriteBuffer;
-                    }
-
-                    amtWritten = mConnection.bulkTransfer(endpoint, writeBuffer, writeLength,
-                            timeoutMillis);
-                }
-
-                if (amtWritten <= 0) {
-                    throw new IOException("Error writing " + writeLength
-                            + " bytes at offset " + offset + " length=" + src.length);
-                }
-
-                Log.d(TAG, "Wrote amtWritten=" + amtWritten + " attempted=" + writeLength);
-                offset += amtWritten;
+        private void checkStatusHeader(int totalBytesRead) throws IOException {
+            if (totalBytesRead < MODEM_STATUS_HEADER_LENGTH) {
+                throw new IOException("Expected at least " + MODEM_STATUS_HEADER_LENGTH + " bytes");
             }
-            return offset;
+        }
+
+        @Override
+        public int write(byte[] src, int offset, int length, int timeoutMillis) throws IOException {
+            return bulkWrite(getWriteEndpoint(), src, offset, length, timeoutMillis);
         }
 
         private int setBaudRate(int baudRate) throws IOException {
@@ -423,6 +613,104 @@ public class FtdiSerialDriver implements UsbSerialDriver {
             }
         }
 
+        /**
+         * Sets the latency timer. The chip sends received data which does not
+         * fill a USB packet when the timer expires, so a short timer hands
+         * small frames to the host sooner, at the cost of more USB traffic.
+         *
+         * @param latencyMillis from {@link #MIN_LATENCY_TIMER_MILLIS} to
+         *            {@link #MAX_LATENCY_TIMER_MILLIS}, the chip defaults to
+         *            {@link #DEFAULT_LATENCY_TIMER_MILLIS}
+         */
+        public void setLatencyTimer(int latencyMillis) throws IOException {
+            if (latencyMillis < MIN_LATENCY_TIMER_MILLIS || latencyMillis > MAX_LATENCY_TIMER_MILLIS) {
+                throw new IllegalArgumentException("Latency timer out of range: " + latencyMillis);
+            }
+            checkOpen();
+            int result = mConnection.controlTransfer(FTDI_DEVICE_OUT_REQTYPE,
+                    SIO_SET_LATENCY_TIMER_REQUEST, latencyMillis, 0 /* index */,
+                    null, 0, USB_WRITE_TIMEOUT_MILLIS);
+            if (result != 0) {
+                throw new IOException("Setting latency timer failed: result=" + result);
+            }
+        }
+
+        /**
+         * Reads the latency timer from the chip.
+         *
+         * @return the latency timer in milliseconds
+         */
+        public int getLatencyTimer() throws IOException {
+            checkOpen();
+            final byte[] latency = new byte[1];
+            int result = mConnection.controlTransfer(FTDI_DEVICE_IN_REQTYPE,
+                    SIO_GET_LATENCY_TIMER_REQUEST, 0, 0 /* index */,
+                    latency, latency.length, USB_READ_TIMEOUT_MILLIS);
+            if (result != latency.length) {
+                throw new IOException("Getting latency timer failed: result=" + result);
+            }
+            return latency[0] & 0xff;
+        }
+
+        /**
+         * Sets the event character. When enabled, the chip sends received
+         * data as soon as it receives this character, without waiting for
+         * the latency timer.
+         */
+        public void setEventChar(byte eventChar, boolean enabled) throws IOException {
+            setChar(SIO_SET_EVENT_CHAR_REQUEST, eventChar, enabled, "event");
+        }
+
+        /**
+         * Sets the error character. When enabled, the chip puts this
+         * character into the received data in place of a byte received with
+         * a parity or framing error.
+         */
+        public void setErrorChar(byte errorChar, boolean enabled) throws IOException {
+            setChar(SIO_SET_ERROR_CHAR_REQUEST, errorChar, enabled, "error");
+        }
+
+        private void setChar(int request, byte ch, boolean enabled, String name) throws IOException {
+            checkOpen();
+            int value = (ch & 0xff) | (enabled ? SIO_CHAR_ENABLE : 0);
+            int result = mConnection.controlTransfer(FTDI_DEVICE_OUT_REQTYPE, request, value,
+                    0 /* index */, null, 0, USB_WRITE_TIMEOUT_MILLIS);
+            if (result != 0) {
+                throw new IOException("Setting " + name + " character failed: result=" + result);
+            }
+        }
+
+        /**
+         * Sets the size of the USB transfers data is read with. The chip
+         * fills a transfer with packets before the host sees them, so a
+         * small transfer size lowers latency and a large one raises
+         * throughput. Takes effect with the next read, or with the next
+         * {@link #createReadPipeline(int)}.
+         *
+         * @param transferSize a multiple of the max packet size of the read
+         *            endpoint, up to {@link #MAX_TRANSFER_SIZE}
+         */
+        public void setTransferSize(int transferSize) {
+            // Checked against full speed packets until the port is open
+            if (transferSize <= 0 || transferSize > MAX_TRANSFER_SIZE || transferSize % mMaxPacketSize != 0) {
+                throw new IllegalArgumentException("Transfer size must be a multiple of " + mMaxPacketSize
+                        + " up to " + MAX_TRANSFER_SIZE + ": " + transferSize);
+            }
+            setReadBufferSize(transferSize);
+        }
+
+        public int getTransferSize() {
+            synchronized (mReadBufferLock) {
+                return mReadBuffer.length;
+            }
+        }
+
+        private void checkOpen() throws IOException {
+            if (mConnection == null) {
+                throw new IOException("Port not open");
+            }
+        }
+
         private long[] convertBaudrate(int baudrate) {
             // TODO(mikey): Braindead transcription of libfti method.  Clean up,
             // using more idiomatic Java where possible.
@@ -511,17 +799,17 @@ public class FtdiSerialDriver implements UsbSerialDriver {
 
         @Override
         public boolean getCD() throws IOException {
-            return false;
+            return (getModemStatus() & MODEM_STATUS_CD) != 0;
         }
 
         @Override
         public boolean getCTS() throws IOException {
-            return false;
+            return (getModemStatus() & MODEM_STATUS_CTS) != 0;
         }
 
         @Override
         public boolean getDSR() throws IOException {
-            return false;
+            return (getModemStatus() & MODEM_STATUS_DSR) != 0;
         }
 
         @Override
@@ -535,7 +823,7 @@ public class FtdiSerialDriver implements UsbSerialDriver {
 
         @Override
         public boolean getRI() throws IOException {
-            return false;
+            return (getModemStatus() & MODEM_STATUS_RI) != 0;
         }
 
         @Override
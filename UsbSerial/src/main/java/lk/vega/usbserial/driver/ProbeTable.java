@@ -21,22 +21,64 @@
 
 package lk.vega.usbserial.driver;
 
-import android.util.Pair;
+import android.hardware.usb.UsbDevice;
+import android.util.SparseArray;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Maps (vendor id, product id) pairs to the corresponding serial driver.
+ * <p/>
+ * The pairs are kept packed into one int, so a lookup does not allocate,
+ * and the constructor of each driver class is resolved once, when the class
+ * is added.
  *
  * @author mike wakerly (opensource@hoho.com)
  */
 public class ProbeTable {
 
-    private final Map<Pair<Integer, Integer>, Class<? extends UsbSerialDriver>> mProbeTable =
-            new LinkedHashMap<Pair<Integer,Integer>, Class<? extends UsbSerialDriver>>();
+    /** key - (vendor id << 16) | product id */
+    private final SparseArray<DriverFactory> mProbeTable = new SparseArray<DriverFactory>();
+
+    /** One factory per driver class, shared by all of its products. */
+    private final Map<Class<? extends UsbSerialDriver>, DriverFactory> mFactories =
+            new HashMap<Class<? extends UsbSerialDriver>, DriverFactory>();
+
+    /**
+     * Creates drivers of one class through its cached
+     * {@code (UsbDevice)} constructor.
+     */
+    static final class DriverFactory {
+        final Class<? extends UsbSerialDriver> mDriverClass;
+        final Constructor<? extends UsbSerialDriver> mConstructor;
+
+        DriverFactory(Class<? extends UsbSerialDriver> driverClass) {
+            mDriverClass = driverClass;
+            try {
+                mConstructor = driverClass.getConstructor(UsbDevice.class);
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        UsbSerialDriver newDriver(UsbDevice device) {
+            try {
+                return mConstructor.newInstance(device);
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException(e);
+            } catch (InstantiationException e) {
+                throw new RuntimeException(e);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
 
     /**
      * Adds or updates a (vendor, product) pair in the table.
@@ -48,7 +90,12 @@ public class ProbeTable {
      */
     public ProbeTable addProduct(int vendorId, int productId,
             Class<? extends UsbSerialDriver> driverClass) {
-        mProbeTable.put(Pair.create(vendorId, productId), driverClass);
+        DriverFactory factory = mFactories.get(driverClass);
+        if (factory == null) {
+            factory = new DriverFactory(driverClass);
+            mFactories.put(driverClass, factory);
+        }
+        mProbeTable.put(key(vendorId, productId), factory);
         return this;
     }
 
@@ -101,8 +148,16 @@ public class ProbeTable {
      * @return the driver class matching this pair, or {@code null}
      */
     public Class<? extends UsbSerialDriver> findDriver(int vendorId, int productId) {
-        final Pair<Integer, Integer> pair = Pair.create(vendorId, productId);
-        return mProbeTable.get(pair);
+        final DriverFactory factory = findFactory(vendorId, productId);
+        return factory != null ? factory.mDriverClass : null;
+    }
+
+    DriverFactory findFactory(int vendorId, int productId) {
+        return mProbeTable.get(key(vendorId, productId));
+    }
+
+    private static int key(int vendorId, int productId) {
+        return ((vendorId & 0xffff) << 16) | (productId & 0xffff);
     }
 
 }
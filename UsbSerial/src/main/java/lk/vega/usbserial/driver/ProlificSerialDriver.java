@@ -117,11 +117,15 @@ public class ProlificSerialDriver implements UsbSerialDriver {
 
         private int mBaudRate = -1, mDataBits = -1, mStopBits = -1, mParity = -1;
 
-        private int mStatus = 0;
-        private volatile Thread mReadStatusThread = null;
-        private final Object mReadStatusThreadLock = new Object();
-        boolean mStopReadStatusThread = false;
-        private IOException mReadStatusException = null;
+        private static final int STATUS_READ_TIMEOUT_MILLIS = 500;
+
+        private volatile int mStatus = 0;
+        private Thread mReadStatusThread = null;
+        private volatile boolean mStopReadStatusThread = false;
+        private volatile IOException mReadStatusException = null;
+
+        /** Only used by the status read thread once it is started. */
+        private final byte[] mStatusBuffer = new byte[STATUS_BUFFER_SIZE];
 
 
         public ProlificSerialPort(UsbDevice device, int portNumber) {
@@ -133,6 +137,16 @@ public class ProlificSerialDriver implements UsbSerialDriver {
             return ProlificSerialDriver.this;
         }
 
+        @Override
+        protected UsbEndpoint getReadEndpoint() {
+            return mReadEndpoint;
+        }
+
+        @Override
+        protected UsbEndpoint getWriteEndpoint() {
+            return mWriteEndpoint;
+        }
+
         private final byte[] inControlTransfer(int requestType, int request,
                 int value, int index, int length) throws IOException {
             byte[] buffer = new byte[length];
@@ -202,14 +216,13 @@ public class ProlificSerialDriver implements UsbSerialDriver {
         private final void readStatusThreadFunction() {
             try {
                 while (!mStopReadStatusThread) {
-                    byte[] buffer = new byte[STATUS_BUFFER_SIZE];
                     int readBytesCount = mConnection.bulkTransfer(mInterruptEndpoint,
-                            buffer,
+                            mStatusBuffer,
                             STATUS_BUFFER_SIZE,
-                            500);
+                            STATUS_READ_TIMEOUT_MILLIS);
                     if (readBytesCount > 0) {
                         if (readBytesCount == STATUS_BUFFER_SIZE) {
-                            mStatus = buffer[STATUS_BYTE_IDX] & 0xff;
+                            onStatus(mStatusBuffer[STATUS_BYTE_IDX] & 0xff);
                         } else {
                             throw new IOException(
                                     String.format("Invalid CTS / DSR / CD / RI status buffer received, expected %d bytes, but received %d",
@@ -223,36 +236,59 @@ public class ProlificSerialDriver implements UsbSerialDriver {
             }
         }
 
-        private final int getStatus() throws IOException {
-            if ((mReadStatusThread == null) && (mReadStatusException == null)) {
-                synchronized (mReadStatusThreadLock) {
-                    if (mReadStatusThread == null) {
-                        byte[] buffer = new byte[STATUS_BUFFER_SIZE];
-                        int readBytes = mConnection.bulkTransfer(mInterruptEndpoint,
-                                buffer,
-                                STATUS_BUFFER_SIZE,
-                                100);
-                        if (readBytes != STATUS_BUFFER_SIZE) {
-                            Log.w(TAG, "Could not read initial CTS / DSR / CD / RI status");
-                        } else {
-                            mStatus = buffer[STATUS_BYTE_IDX] & 0xff;
-                        }
+        /**
+         * Reads the initial status, and starts the thread which reads status
+         * changes from the interrupt endpoint until the port is closed.
+         */
+        private void startReadStatusThread() {
+            int readBytes = mConnection.bulkTransfer(mInterruptEndpoint,
+                    mStatusBuffer,
+                    STATUS_BUFFER_SIZE,
+                    100);
+            if (readBytes != STATUS_BUFFER_SIZE) {
+                Log.w(TAG, "Could not read initial CTS / DSR / CD / RI status");
+            } else {
+                onStatus(mStatusBuffer[STATUS_BYTE_IDX] & 0xff);
+            }
 
-                        mReadStatusThread = new Thread(new Runnable() {
-                            @Override
-                            public void run() {
-                                readStatusThreadFunction();
-                            }
-                        });
-                        mReadStatusThread.setDaemon(true);
-                        mReadStatusThread.start();
-                    }
+            mStopReadStatusThread = false;
+            mReadStatusException = null;
+            mReadStatusThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readStatusThreadFunction();
                 }
+            }, "pl2303-status");
+            mReadStatusThread.setDaemon(true);
+            mReadStatusThread.start();
+        }
+
+        private void stopReadStatusThread() {
+            if (mReadStatusThread == null) {
+                return;
             }
+            mStopReadStatusThread = true;
+            try {
+                mReadStatusThread.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for status read thread", e);
+                Thread.currentThread().interrupt();
+            }
+            mReadStatusThread = null;
+        }
+
+        private void onStatus(int status) {
+            mStatus = status;
+            onModemStatus(((status & STATUS_FLAG_CD) != 0 ? MODEM_STATUS_CD : 0)
+                    | ((status & STATUS_FLAG_CTS) != 0 ? MODEM_STATUS_CTS : 0)
+                    | ((status & STATUS_FLAG_DSR) != 0 ? MODEM_STATUS_DSR : 0)
+                    | ((status & STATUS_FLAG_RI) != 0 ? MODEM_STATUS_RI : 0));
+        }
 
+        private final int getStatus() throws IOException {
             /* throw and clear an exception which occured in the status read thread */
             IOException readStatusException = mReadStatusException;
-            if (mReadStatusException != null) {
+            if (readStatusException != null) {
                 mReadStatusException = null;
                 throw readStatusException;
             }
@@ -331,6 +367,7 @@ public class ProlificSerialDriver implements UsbSerialDriver {
                 resetDevice();
 
                 doBlackMagic();
+                startReadStatusThread();
                 opened = true;
             } finally {
                 if (!opened) {
@@ -346,16 +383,7 @@ public class ProlificSerialDriver implements UsbSerialDriver {
                 throw new IOException("Already closed");
             }
             try {
-                mStopReadStatusThread = true;
-                synchronized (mReadStatusThreadLock) {
-                    if (mReadStatusThread != null) {
-                        try {
-                            mReadStatusThread.join();
-                        } catch (Exception e) {
-                            Log.w(TAG, "An error occured while waiting for status read thread", e);
-                        }
-                    }
-                }
+                stopReadStatusThread();
                 resetDevice();
             } finally {
                 try {
@@ -381,38 +409,8 @@ public class ProlificSerialDriver implements UsbSerialDriver {
         }
 
         @Override
-        public int write(byte[] src, int timeoutMillis) throws IOException {
-            int offset = 0;
-
-            while (offset < src.length) {
-                final int writeLength;
-                final int amtWritten;
-
-                synchronized (mWriteBufferLock) {
-                    final byte[] writeBuffer;
-
-                    writeLength = Math.min(src.length - offset, mWriteBuffer.length);
-                    if (offset == 0) {
-                        writeBuffer = src;
-                    } else {
-                        // bulkTransfer does not support offsets, make a copy.
-                        System.arraycopy(src, offset, mWriteBuffer, 0, writeLength);
-                        writeBuffer = mWriteBuffer;
-                    }
-
-                    amtWritten = mConnection.bulkTransfer(mWriteEndpoint,
-                            writeBuffer, writeLength, timeoutMillis);
-                }
-
-                if (amtWritten <= 0) {
-                    throw new IOException("Error writing " + writeLength
-                            + " bytes at offset " + offset + " length="
-                            + src.length);
-                }
-
-                offset += amtWritten;
-            }
-            return offset;
+        public int write(byte[] src, int offset, int length, int timeoutMillis) throws IOException {
+            return bulkWrite(mWriteEndpoint, src, offset, length, timeoutMillis);
         }
 
         @Override
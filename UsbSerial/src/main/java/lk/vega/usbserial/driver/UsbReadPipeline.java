@@ -0,0 +1,484 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.usbserial.driver;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps several asynchronous {@link UsbRequest}s queued on the read endpoint of a port, so the bus is serviced
+ * while the data of a completed request is being handled.
+ * <p/>
+ * A reaper thread waits for the requests to complete, and hands them over in the order in which they were queued.
+ * {@link #read(byte[], int)} copies the data of the next completed request and queues the request again. The
+ * pipeline must be the only user of asynchronous requests on the connection, since
+ * {@link UsbDeviceConnection#requestWait()} returns the requests of all endpoints.
+ * <p/>
+ * In ring mode the reaper instead copies the data of each completed request into a byte ring and queues the request
+ * again at once, so the requests stay on the bus while the reader is busy, until the ring is full.
+ * {@link #read(byte[], int)} then drains the ring.
+ * <p/>
+ * The number of bytes a request has read is the position of its buffer. Due to http://b.android.com/28023 this is
+ * only set from Android 4.2, so the pipeline is not {@link #isSupported() supported} on older releases.
+ * <p/>
+ * {@link #read(byte[], int)} must be called from a single thread.
+ */
+public class UsbReadPipeline {
+    private static final String TAG = UsbReadPipeline.class.getSimpleName();
+
+    /**
+     * Default number of requests kept in flight
+     */
+    public static final int DEFAULT_REQUEST_COUNT = 4;
+
+    /**
+     * Requests are truncated to this size by the USB stack of older Android releases
+     */
+    public static final int MAX_REQUEST_SIZE = 16 * 1024;
+
+    /**
+     * Default capacity of the byte ring in ring mode
+     */
+    public static final int DEFAULT_RING_CAPACITY = 64 * 1024;
+
+    private final UsbDeviceConnection mConnection;
+    private final UsbEndpoint mEndpoint;
+    private final Transfer[] mTransfers;
+    private final int mRequestSize;
+
+    /** Completed transfers, in the order in which they were queued. */
+    private final ArrayBlockingQueue<Transfer> mCompleted;
+
+    /** The transfer being read by {@link #read(byte[], int)}. Accessed by the reading thread only. */
+    private Transfer mCurrent;
+
+    /** {@link System#nanoTime()} at which the request of the last byte read completed. Reading thread only. */
+    private long mReadTimestampNanos;
+
+    /** Number of requests queued and not yet reaped. */
+    private final AtomicInteger mInFlight = new AtomicInteger();
+
+    /** Byte ring of ring mode, or null. Guarded by itself, like mRingStart and mRingCount. */
+    private final byte[] mRing;
+    private int mRingStart;
+    private int mRingCount;
+    private int mRingHighWaterMark;
+    /** {@link System#nanoTime()} at which the request of the newest byte in the ring completed. */
+    private long mRingTimestampNanos;
+
+    /** Queued and cancelled by close() to return the reaper from requestWait() when no request is in flight. */
+    private final UsbRequest mWakeRequest = new UsbRequest();
+
+    private Thread mReaper;
+    private volatile boolean mClosed;
+
+    /** Hand over of closing the requests between close() and the reaper. Guarded by mTransfers. */
+    private boolean mCancelled;
+    private boolean mReaperExited;
+    private boolean mRequestsClosed;
+    private volatile IOException mError;
+
+    private static class Transfer {
+        final int index;
+        final UsbRequest request = new UsbRequest();
+        final ByteBuffer buffer;
+        /** Set by the reaper, and cleared by the thread which queues the request again. */
+        volatile boolean done;
+        /** Written by the reaper before the transfer is handed over, so the handover publishes it. */
+        long completedNanos;
+        int length;
+        int offset;
+
+        Transfer(int index, int size) {
+            this.index = index;
+            this.buffer = ByteBuffer.allocate(size);
+        }
+    }
+
+    /**
+     * @param requestCount the number of requests to keep in flight
+     * @param requestSize the size of each request. Capped to {@link #MAX_REQUEST_SIZE}.
+     */
+    public UsbReadPipeline(UsbDeviceConnection connection, UsbEndpoint endpoint, int requestCount, int requestSize) {
+        this(connection, endpoint, requestCount, requestSize, 0);
+    }
+
+    /**
+     * @param requestCount the number of requests to keep in flight
+     * @param requestSize the size of each request. Capped to {@link #MAX_REQUEST_SIZE}.
+     * @param ringCapacity the capacity of the byte ring, or 0 to hand over the requests themselves
+     */
+    public UsbReadPipeline(UsbDeviceConnection connection, UsbEndpoint endpoint, int requestCount, int requestSize,
+                           int ringCapacity) {
+        if (requestCount <= 0) {
+            throw new IllegalArgumentException("Invalid request count " + requestCount);
+        }
+        mConnection = connection;
+        mEndpoint = endpoint;
+        mRequestSize = Math.min(requestSize, MAX_REQUEST_SIZE);
+        mTransfers = new Transfer[requestCount];
+        for (int i = 0; i < requestCount; i++) {
+            mTransfers[i] = new Transfer(i, mRequestSize);
+        }
+        mCompleted = new ArrayBlockingQueue<Transfer>(requestCount);
+        if (ringCapacity < 0) {
+            throw new IllegalArgumentException("Invalid ring capacity " + ringCapacity);
+        }
+        mRing = ringCapacity > 0 ? new byte[Math.max(ringCapacity, mRequestSize)] : null;
+    }
+
+    /**
+     * @return true if the byte count of asynchronous requests is reported on this Android release
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1;
+    }
+
+    /**
+     * Queues all the requests, and starts reaping them
+     */
+    public void start() throws IOException {
+        for (Transfer transfer : mTransfers) {
+            if (!transfer.request.initialize(mConnection, mEndpoint)) {
+                close();
+                throw new IOException("Error initializing request.");
+            }
+            transfer.request.setClientData(transfer);
+            queue(transfer);
+        }
+        mReaper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reap();
+            }
+        }, "usb-read-reaper");
+        mReaper.setDaemon(true);
+        mReaper.start();
+    }
+
+    /**
+     * Reads the data of the next completed request, or in ring mode the data waiting in the ring. Data which does not
+     * fit into dest is returned by the next reads.
+     *
+     * @param dest the destination buffer
+     * @param timeoutMillis how long to wait for a request to complete
+     * @return the number of bytes read, 0 on timeout
+     * @throws IOException if reaping the requests has failed, or the pipeline is closed
+     */
+    public int read(byte[] dest, int timeoutMillis) throws IOException {
+        if (mRing != null) {
+            return readRing(dest, timeoutMillis);
+        }
+        if (mCurrent == null) {
+            try {
+                mCurrent = mCompleted.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+            if (mCurrent == null) {
+                IOException error = mError;
+                if (error != null) {
+                    throw error;
+                }
+                if (mClosed) {
+                    throw new IOException("Pipeline closed");
+                }
+                return 0;
+            }
+            mCurrent.length = onTransferComplete(mCurrent.buffer.array(), mCurrent.buffer.position());
+            mCurrent.offset = 0;
+        }
+        Transfer transfer = mCurrent;
+        mReadTimestampNanos = transfer.completedNanos;
+        int count = Math.min(dest.length, transfer.length - transfer.offset);
+        System.arraycopy(transfer.buffer.array(), transfer.offset, dest, 0, count);
+        transfer.offset += count;
+        if (transfer.offset == transfer.length) {
+            mCurrent = null;
+            queue(transfer);
+        }
+        return count;
+    }
+
+    private int readRing(byte[] dest, int timeoutMillis) throws IOException {
+        synchronized (mRing) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (mRingCount == 0) {
+                IOException error = mError;
+                if (error != null) {
+                    throw error;
+                }
+                if (mClosed) {
+                    throw new IOException("Pipeline closed");
+                }
+                final long waitMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (waitMillis <= 0) {
+                    return 0;
+                }
+                try {
+                    mRing.wait(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 0;
+                }
+            }
+            final int count = Math.min(dest.length, mRingCount);
+            final int first = Math.min(count, mRing.length - mRingStart);
+            System.arraycopy(mRing, mRingStart, dest, 0, first);
+            System.arraycopy(mRing, 0, dest, first, count - first);
+            mRingStart = (mRingStart + count) % mRing.length;
+            mRingCount -= count;
+            mReadTimestampNanos = mRingTimestampNanos;
+            mRing.notifyAll();
+            return count;
+        }
+    }
+
+    /**
+     * Copies the data of a completed request into the ring, waiting for space while the ring is full
+     */
+    private void fillRing(Transfer transfer) throws InterruptedException {
+        final byte[] data = transfer.buffer.array();
+        final int length = onTransferComplete(data, transfer.buffer.position());
+        int offset = 0;
+        synchronized (mRing) {
+            while (offset < length) {
+                while (mRingCount == mRing.length) {
+                    if (mClosed) {
+                        return;
+                    }
+                    mRing.wait();
+                }
+                final int end = (mRingStart + mRingCount) % mRing.length;
+                final int count = Math.min(length - offset,
+                        Math.min(mRing.length - mRingCount, mRing.length - end));
+                System.arraycopy(data, offset, mRing, end, count);
+                offset += count;
+                mRingCount += count;
+                mRingTimestampNanos = transfer.completedNanos;
+                mRing.notifyAll();
+            }
+            if (mRingCount > mRingHighWaterMark) {
+                mRingHighWaterMark = mRingCount;
+            }
+        }
+    }
+
+    /**
+     * Called with the data of a completed request, before it is read. This is the reading thread, or the reaper
+     * thread in ring mode. Ports whose devices
+     * add headers to the data remove them here.
+     *
+     * @param data the data read by the request
+     * @param length the number of bytes read by the request
+     * @return the number of bytes of data
+     */
+    protected int onTransferComplete(byte[] data, int length) {
+        return length;
+    }
+
+    /**
+     * Cancels the requests, and waits for the reaper to exit, so it does not take the requests of a later user of the
+     * connection. A blocked {@link #read(byte[], int)} fails when it times out. The requests are closed once the
+     * reaper has exited. If it is still waiting for a request after the join timeout, the reaper closes them itself
+     * when it exits.
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mRing != null) {
+            synchronized (mRing) {
+                mRing.notifyAll();
+            }
+        }
+        synchronized (mTransfers) {
+            for (Transfer transfer : mTransfers) {
+                transfer.request.cancel();
+            }
+            mCancelled = true;
+        }
+        // The reaper ends once the cancelled requests have been returned. The wake request is returned even if no
+        // request was in flight.
+        if (mReaper != null) {
+            wakeReaper();
+            try {
+                mReaper.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (mTransfers) {
+            if (mReaper == null || mReaperExited) {
+                closeRequests();
+            }
+        }
+    }
+
+    private void wakeReaper() {
+        if (!mWakeRequest.initialize(mConnection, mEndpoint)) {
+            Log.w(TAG, "Error initializing wake request");
+            return;
+        }
+        mWakeRequest.setClientData(this);
+        mInFlight.incrementAndGet();
+        if (!mWakeRequest.queue(ByteBuffer.allocate(mEndpoint.getMaxPacketSize()), mEndpoint.getMaxPacketSize())) {
+            mInFlight.decrementAndGet();
+            Log.w(TAG, "Error queueing wake request");
+            return;
+        }
+        mWakeRequest.cancel();
+    }
+
+    /**
+     * Closes the requests once. Must be called with the lock of mTransfers held, and not while the reaper may
+     * still be using the requests.
+     */
+    private void closeRequests() {
+        if (!mRequestsClosed) {
+            mRequestsClosed = true;
+            for (Transfer transfer : mTransfers) {
+                transfer.request.close();
+            }
+            mWakeRequest.close();
+        }
+    }
+
+    public int getRequestCount() {
+        return mTransfers.length;
+    }
+
+    public int getRequestSize() {
+        return mRequestSize;
+    }
+
+    /**
+     * @return the capacity of the byte ring, 0 if not in ring mode
+     */
+    public int getRingCapacity() {
+        return mRing == null ? 0 : mRing.length;
+    }
+
+    /**
+     * Returns when the data returned by the last {@link #read(byte[], int)} arrived, which is earlier than the read
+     * when the data has waited in the pipeline. In ring mode, this is the time of the newest data in the ring, so
+     * it is later than the last byte read if the read did not empty the ring. Must be called by the reading thread.
+     *
+     * @return the {@link System#nanoTime()} at which the request of the last byte read completed
+     */
+    public long getReadTimestampNanos() {
+        return mReadTimestampNanos;
+    }
+
+    /**
+     * @return the largest number of bytes which have waited in the ring to be read
+     */
+    public int getRingHighWaterMark() {
+        if (mRing == null) {
+            return 0;
+        }
+        synchronized (mRing) {
+            return mRingHighWaterMark;
+        }
+    }
+
+    private void queue(Transfer transfer) throws IOException {
+        if (mClosed) {
+            return;
+        }
+        transfer.done = false;
+        transfer.buffer.clear();
+        mInFlight.incrementAndGet();
+        if (!transfer.request.queue(transfer.buffer, mRequestSize)) {
+            mInFlight.decrementAndGet();
+            throw new IOException("Error queueing request.");
+        }
+    }
+
+    private void reap() {
+        // The requests of an endpoint complete in order, but the next request to hand over is tracked anyway, as
+        // requestWait() makes no such promise
+        int next = 0;
+        try {
+            while (!mClosed || mInFlight.get() > 0) {
+                final UsbRequest response = mConnection.requestWait();
+                final long completedNanos = System.nanoTime();
+                if (response == null) {
+                    throw new IOException("Null response");
+                }
+                final Object clientData = response.getClientData();
+                if (response == mWakeRequest) {
+                    mInFlight.decrementAndGet();
+                    continue;
+                }
+                if (!(clientData instanceof Transfer) || mTransfers[((Transfer) clientData).index] != clientData) {
+                    Log.w(TAG, "Ignoring request of another endpoint");
+                    continue;
+                }
+                mInFlight.decrementAndGet();
+                if (mClosed) {
+                    continue;
+                }
+                ((Transfer) clientData).done = true;
+                ((Transfer) clientData).completedNanos = completedNanos;
+                while (mTransfers[next].done) {
+                    final Transfer transfer = mTransfers[next];
+                    transfer.done = false;
+                    next = (next + 1) % mTransfers.length;
+                    if (mRing != null) {
+                        fillRing(transfer);
+                        queue(transfer);
+                    } else {
+                        mCompleted.put(transfer);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!mClosed) {
+                Log.w(TAG, "Reaping ended due to exception: " + e.getMessage(), e);
+                mError = e;
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Reaper interrupted");
+        } finally {
+            if (mRing != null) {
+                // Wakes a reader waiting for data, so it sees the error
+                synchronized (mRing) {
+                    mRing.notifyAll();
+                }
+            }
+            synchronized (mTransfers) {
+                mReaperExited = true;
+                if (mCancelled) {
+                    // close() may have given up waiting for this thread, and left the requests to it
+                    closeRequests();
+                }
+            }
+        }
+    }
+}
@@ -75,6 +75,34 @@ public interface UsbSerialPort {
     /** Space parity. */
     public static final int PARITY_SPACE = 4;
 
+    /** CD (Carrier Detect) bit of the modem status. */
+    public static final int MODEM_STATUS_CD = 0x01;
+
+    /** CTS (Clear To Send) bit of the modem status. */
+    public static final int MODEM_STATUS_CTS = 0x02;
+
+    /** DSR (Data Set Ready) bit of the modem status. */
+    public static final int MODEM_STATUS_DSR = 0x04;
+
+    /** RI (Ring Indicator) bit of the modem status. */
+    public static final int MODEM_STATUS_RI = 0x08;
+
+    /**
+     * Notified when the modem status lines of a port change.
+     */
+    public interface ModemStatusListener {
+        /**
+         * Called on a driver thread as soon as the port sees a change. Must
+         * return quickly.
+         *
+         * @param port the port whose status changed
+         * @param modemStatus the {@link #MODEM_STATUS_CD} and following bits
+         *            which are set
+         * @param changed the bits which changed
+         */
+        public void onModemStatusChanged(UsbSerialPort port, int modemStatus, int changed);
+    }
+
     /** 1 stop bit. */
     public static final int STOPBITS_1 = 1;
 
@@ -133,6 +161,34 @@ public interface UsbSerialPort {
      */
     public int write(final byte[] src, final int timeoutMillis) throws IOException;
 
+    /**
+     * Writes as many bytes as possible from a range of the source buffer.
+     *
+     * @param src the source byte buffer
+     * @param offset the offset of the first byte to write
+     * @param length the number of bytes to write
+     * @param timeoutMillis the timeout for writing
+     * @return the actual number of bytes written
+     * @throws java.io.IOException if an error occurred during writing
+     */
+    public int write(byte[] src, int offset, int length, int timeoutMillis) throws IOException;
+
+    /**
+     * Returns the max packet size of the endpoint data is written to.
+     *
+     * @return the packet size in bytes, or 0 if the port is not open or the
+     * size is not known
+     */
+    public int getWritePacketSize();
+
+    /**
+     * Returns the max packet size of the endpoint data is read from.
+     *
+     * @return the packet size in bytes, or 0 if the port is not open or the
+     * size is not known
+     */
+    public int getReadPacketSize();
+
     /**
      * Sets various serial port parameters.
      *
@@ -225,4 +281,27 @@ public interface UsbSerialPort {
      */
     public boolean purgeHwBuffers(boolean flushRX, boolean flushTX) throws IOException;
 
+    /**
+     * Creates a pipeline of asynchronous reads on the read endpoint of the
+     * open port. While the pipeline is open, read data with
+     * {@link UsbReadPipeline#read(byte[], int)} instead of {@link #read(byte[], int)}.
+     *
+     * @param requestCount the number of read requests to keep in flight
+     * @return the pipeline, not yet started, or {@code null} if the port does
+     * not support asynchronous reads
+     * @throws java.io.IOException if the port is not open
+     */
+    public UsbReadPipeline createReadPipeline(int requestCount) throws IOException;
+
+    /**
+     * Sets the listener which is pushed changes of the modem status lines.
+     * Ports which see the modem status without polling, from an interrupt
+     * endpoint or from the headers of read data, call it as the changes
+     * arrive; other ports never call it. The first status seen after the
+     * listener is set is reported with all of its bits changed.
+     *
+     * @param listener the listener, or {@code null} to remove it
+     */
+    public void setModemStatusListener(ModemStatusListener listener);
+
 }
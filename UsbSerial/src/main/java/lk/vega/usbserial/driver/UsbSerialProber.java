@@ -24,12 +24,15 @@ package lk.vega.usbserial.driver;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * Finds the drivers of attached devices. The driver of a device is created
+ * once, and returned again while the device stays attached, so a prober
+ * should be kept and reused between refreshes.
  *
  * @author mike wakerly (opensource@hoho.com)
  */
@@ -37,6 +40,11 @@ public class UsbSerialProber {
 
     private final ProbeTable mProbeTable;
 
+    /**
+     * key - device name. Guarded by 'this'.
+     */
+    private Map<String, UsbSerialDriver> mDrivers = new HashMap<String, UsbSerialDriver>();
+
     public UsbSerialProber(ProbeTable probeTable) {
         mProbeTable = probeTable;
     }
@@ -59,52 +67,60 @@ public class UsbSerialProber {
      * from the currently-attached {@link android.hardware.usb.UsbDevice} hierarchy. This method does
      * not require permission from the Android USB system, since it does not
      * open any of the devices.
+     * <p/>
+     * Devices which were attached at the previous call keep their driver.
+     * The drivers of detached devices are forgotten.
      *
      * @param usbManager
      * @return a list, possibly empty, of all compatible drivers
      */
-    public List<UsbSerialDriver> findAllDrivers(final UsbManager usbManager) {
+    public synchronized List<UsbSerialDriver> findAllDrivers(final UsbManager usbManager) {
         final List<UsbSerialDriver> result = new ArrayList<UsbSerialDriver>();
+        final Map<String, UsbSerialDriver> drivers = new HashMap<String, UsbSerialDriver>();
 
         for (final UsbDevice usbDevice : usbManager.getDeviceList().values()) {
             final UsbSerialDriver driver = probeDevice(usbDevice);
             if (driver != null) {
                 result.add(driver);
+                drivers.put(usbDevice.getDeviceName(), driver);
             }
         }
+        mDrivers = drivers;
         return result;
     }
     
+    /**
+     * Forgets the driver of a detached device, so a device attached later
+     * under the same name gets a new driver.
+     *
+     * @param usbDevice the detached device
+     */
+    public synchronized void forgetDevice(final UsbDevice usbDevice) {
+        mDrivers.remove(usbDevice.getDeviceName());
+    }
+
     /**
      * Probes a single device for a compatible driver.
      * 
      * @param usbDevice the usb device to probe
-     * @return a new {@link UsbSerialDriver} compatible with this device, or
+     * @return a {@link UsbSerialDriver} compatible with this device, the one
+     *         returned before if the device has been probed already, or
      *         {@code null} if none available.
      */
-    public UsbSerialDriver probeDevice(final UsbDevice usbDevice) {
+    public synchronized UsbSerialDriver probeDevice(final UsbDevice usbDevice) {
         final int vendorId = usbDevice.getVendorId();
         final int productId = usbDevice.getProductId();
 
-        final Class<? extends UsbSerialDriver> driverClass =
-                mProbeTable.findDriver(vendorId, productId);
-        if (driverClass != null) {
-            final UsbSerialDriver driver;
-            try {
-                final Constructor<? extends UsbSerialDriver> ctor =
-                        driverClass.getConstructor(UsbDevice.class);
-                driver = ctor.newInstance(usbDevice);
-            } catch (NoSuchMethodException e) {
-                throw new RuntimeException(e);
-            } catch (IllegalArgumentException e) {
-                throw new RuntimeException(e);
-            } catch (InstantiationException e) {
-                throw new RuntimeException(e);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e);
-            } catch (InvocationTargetException e) {
-                throw new RuntimeException(e);
-            }
+        final UsbSerialDriver known = mDrivers.get(usbDevice.getDeviceName());
+        if (known != null && known.getDevice().getVendorId() == vendorId
+                && known.getDevice().getProductId() == productId) {
+            return known;
+        }
+
+        final ProbeTable.DriverFactory factory = mProbeTable.findFactory(vendorId, productId);
+        if (factory != null) {
+            final UsbSerialDriver driver = factory.newDriver(usbDevice);
+            mDrivers.put(usbDevice.getDeviceName(), driver);
             return driver;
         }
         return null;
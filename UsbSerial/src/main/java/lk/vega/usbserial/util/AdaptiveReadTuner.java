@@ -0,0 +1,77 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.usbserial.util;
+
+/**
+ * Tunes the read size and timeout of an {@link IoMode#ADAPTIVE} manager. The rate at which data arrives is measured
+ * over windows of {@link #WINDOW_NANOS}. The read size is set so that one read holds about
+ * {@link #TARGET_LATENCY_NANOS} of data, and the timeout to twice the time it takes to fill a read, so a busy port
+ * is read in large transfers and an idle one wakes the reader rarely.
+ * <p/>
+ * Not thread safe. Only used by the reader thread.
+ */
+class AdaptiveReadTuner {
+
+    static final long WINDOW_NANOS = 250000000L;
+    static final long TARGET_LATENCY_NANOS = 10000000L;
+
+    private long mWindowStart = -1;
+    private long mWindowBytes;
+
+    /**
+     * Records a read, and returns the parameters to use from now on
+     *
+     * @param length the number of bytes read, 0 if the read timed out
+     * @param now the current {@link System#nanoTime()}
+     * @return the new parameters, or the given ones if they are unchanged
+     */
+    IoParameters onRead(IoParameters parameters, int length, long now) {
+        if (mWindowStart < 0) {
+            mWindowStart = now;
+        }
+        mWindowBytes += length;
+        final long elapsed = now - mWindowStart;
+        if (elapsed < WINDOW_NANOS) {
+            return parameters;
+        }
+        final double bytesPerNano = (double) mWindowBytes / elapsed;
+        mWindowStart = now;
+        mWindowBytes = 0;
+
+        final int readSize = roundUpToPowerOfTwo(bytesPerNano * TARGET_LATENCY_NANOS);
+        final long fillNanos = bytesPerNano > 0 ? (long) (readSize / bytesPerNano) : Long.MAX_VALUE;
+        final int readTimeoutMillis = (int) Math.max(IoMode.MIN_READ_TIMEOUT_MILLIS,
+                Math.min(IoMode.MAX_READ_TIMEOUT_MILLIS, 2 * (fillNanos / 1000000L)));
+        if (readSize == parameters.getReadSize() && readTimeoutMillis == parameters.getReadTimeoutMillis()) {
+            return parameters;
+        }
+        return parameters.withRead(readTimeoutMillis, readSize);
+    }
+
+    void reset() {
+        mWindowStart = -1;
+        mWindowBytes = 0;
+    }
+
+    private static int roundUpToPowerOfTwo(double bytes) {
+        int size = IoMode.MIN_READ_SIZE;
+        while (size < bytes && size < IoMode.MAX_TRANSFER_SIZE) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
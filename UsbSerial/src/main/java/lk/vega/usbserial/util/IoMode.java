@@ -0,0 +1,65 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.usbserial.util;
+
+/**
+ * Trade-off between latency and throughput made by a {@link SerialInputOutputManager}. The current parameters of a
+ * running manager are returned by {@link SerialInputOutputManager#getIoParameters()}.
+ */
+public enum IoMode {
+
+    /**
+     * Small transfers and short timeouts, so each received byte is handed on as soon as possible. Suits interactive
+     * bench sessions.
+     */
+    LOW_LATENCY(new IoParameters(20, 256, 50, 512)),
+
+    /**
+     * Medium transfers and timeouts. The default.
+     */
+    BALANCED(new IoParameters(200, 4096, 200, 4096)),
+
+    /**
+     * Large transfers and long timeouts, so heavy traffic takes few reads and wake ups. Suits long logging sessions.
+     */
+    HIGH_THROUGHPUT(new IoParameters(500, IoMode.MAX_TRANSFER_SIZE, 1000, IoMode.MAX_TRANSFER_SIZE)),
+
+    /**
+     * Starts with the {@link #BALANCED} parameters, and tunes the read size and timeout to the rate at which data
+     * arrives, within {@link #MIN_READ_SIZE} to {@link #MAX_TRANSFER_SIZE} bytes and
+     * {@link #MIN_READ_TIMEOUT_MILLIS} to {@link #MAX_READ_TIMEOUT_MILLIS}.
+     */
+    ADAPTIVE(BALANCED.getInitialParameters());
+
+    public static final int MIN_READ_SIZE = 64;
+    public static final int MAX_TRANSFER_SIZE = 16 * 1024;
+    public static final int MIN_READ_TIMEOUT_MILLIS = 10;
+    public static final int MAX_READ_TIMEOUT_MILLIS = 500;
+
+    private final IoParameters mInitialParameters;
+
+    IoMode(IoParameters initialParameters) {
+        mInitialParameters = initialParameters;
+    }
+
+    /**
+     * @return the parameters of this mode. An {@link #ADAPTIVE} manager starts with these.
+     */
+    public IoParameters getInitialParameters() {
+        return mInitialParameters;
+    }
+}
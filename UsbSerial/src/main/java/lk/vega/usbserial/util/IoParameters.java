@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.usbserial.util;
+
+/**
+ * The transfer sizes and timeouts a {@link SerialInputOutputManager} currently uses. Immutable.
+ */
+public final class IoParameters {
+
+    private final int mReadTimeoutMillis;
+    private final int mReadSize;
+    private final int mWriteTimeoutMillis;
+    private final int mWriteSize;
+
+    /**
+     * @param readTimeoutMillis the longest time a read waits for data
+     * @param readSize the largest number of bytes taken by one read. A power of two. Reads are rounded up to at
+     * least one max size packet of the read endpoint.
+     * @param writeTimeoutMillis the longest time a write waits for the device
+     * @param writeSize the largest number of bytes gathered into one write
+     */
+    IoParameters(int readTimeoutMillis, int readSize, int writeTimeoutMillis, int writeSize) {
+        mReadTimeoutMillis = readTimeoutMillis;
+        mReadSize = readSize;
+        mWriteTimeoutMillis = writeTimeoutMillis;
+        mWriteSize = writeSize;
+    }
+
+    public int getReadTimeoutMillis() {
+        return mReadTimeoutMillis;
+    }
+
+    public int getReadSize() {
+        return mReadSize;
+    }
+
+    public int getWriteTimeoutMillis() {
+        return mWriteTimeoutMillis;
+    }
+
+    public int getWriteSize() {
+        return mWriteSize;
+    }
+
+    IoParameters withRead(int readTimeoutMillis, int readSize) {
+        return new IoParameters(readTimeoutMillis, readSize, mWriteTimeoutMillis, mWriteSize);
+    }
+
+    @Override
+    public String toString() {
+        return "IoParameters[readTimeoutMillis=" + mReadTimeoutMillis + ", readSize=" + mReadSize
+                + ", writeTimeoutMillis=" + mWriteTimeoutMillis + ", writeSize=" + mWriteSize + "]";
+    }
+}
@@ -21,12 +21,13 @@
 
 package lk.vega.usbserial.util;
 
-import android.hardware.usb.UsbRequest;
 import android.util.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 
+import lk.vega.usbserial.driver.UsbReadPipeline;
 import lk.vega.usbserial.driver.UsbSerialPort;
 
 /**
@@ -40,15 +41,44 @@ public class SerialInputOutputManager implements Runnable {
     private static final String TAG = SerialInputOutputManager.class.getSimpleName();
     private static final boolean DEBUG = true;
 
-    private static final int READ_WAIT_MILLIS = 200;
-    private static final int BUFSIZ = 4096;
+    // How long the writer waits for a frame before checking whether it should stop
+    private static final int WRITE_WAIT_MILLIS = 200;
+
+    /**
+     * Default time frames are held back to be coalesced with the following frames.
+     */
+    public static final int DEFAULT_COALESCING_DELAY_MICROS = 500;
 
     private final UsbSerialPort mDriver;
 
-    private final ByteBuffer mReadBuffer = ByteBuffer.allocate(BUFSIZ);
+    // Read buffers of each power of two read size, allocated when first used. Only accessed by the thread in run().
+    private final byte[][] mReadBuffers = new byte[readBufferIndex(IoMode.MAX_TRANSFER_SIZE) + 1][];
+
+    // Read only views of mReadBuffers, handed to the BufferListener
+    private final ByteBuffer[] mReadViews = new ByteBuffer[mReadBuffers.length];
+
+    // Only accessed by the thread in run()
+    private final AdaptiveReadTuner mReadTuner = new AdaptiveReadTuner();
+
+    // Set when the mode is changed to ADAPTIVE, so the reader thread resets mReadTuner
+    private volatile boolean mReadTunerReset;
+
+    private final TransmitQueue mTransmitQueue;
+
+    // Frames which are written together are gathered here. Only accessed by the writer thread.
+    private final ByteBuffer mWriteBuffer = ByteBuffer.allocate(IoMode.MAX_TRANSFER_SIZE);
+
+    // A frame which did not fit into the previous write. Only accessed by the writer thread.
+    private byte[] mPendingFrame;
+
+    // How long frames are held back to be coalesced, or -1 if write coalescing is off
+    private volatile long mCoalescingDelayNanos = -1;
+
+    // Written while synchronized by 'this'
+    private volatile IoMode mIoMode = IoMode.BALANCED;
 
-    // Synchronized by 'mWriteBuffer'
-    private final ByteBuffer mWriteBuffer = ByteBuffer.allocate(BUFSIZ);
+    // Written while synchronized by 'this'
+    private volatile IoParameters mIoParameters = IoMode.BALANCED.getInitialParameters();
 
     private enum State {
         STOPPED,
@@ -62,6 +92,20 @@ public class SerialInputOutputManager implements Runnable {
     // Synchronized by 'this'
     private Listener mListener;
 
+    // Synchronized by 'this'
+    private BufferListener mBufferListener;
+
+    // Synchronized by 'this'
+    private int mReadRequestCount;
+
+    // Synchronized by 'this'
+    private Exception mRunError;
+
+    // Only accessed by the thread in run()
+    private UsbReadPipeline mReadPipeline;
+    private long mReadTimestampNanos;
+    private int mReadPacketSize;
+
     public interface Listener {
         /**
          * Called when new incoming data is available.
@@ -75,6 +119,52 @@ public class SerialInputOutputManager implements Runnable {
         public void onRunError(Exception e);
     }
 
+    /**
+     * Receives incoming data without a copy being made for it.
+     */
+    public interface BufferListener {
+        /**
+         * Called on the reading thread when new incoming data is available.
+         * The data is between the position and the limit of a read only view
+         * of the manager's read buffer. The buffer is reused for the next
+         * read, so the view is only valid until this method returns, and data
+         * which is kept must be copied out of it. The listener may move the
+         * position of the view. {@link #getReadTimestampNanos()} returns when
+         * the data was read.
+         */
+        public void onNewData(ByteBuffer data);
+
+        /**
+         * Called when {@link lk.vega.usbserial.util.SerialInputOutputManager#run()} aborts due to an
+         * error.
+         */
+        public void onRunError(Exception e);
+    }
+
+    /**
+     * Adapts a {@link Listener} to a {@link BufferListener}, by copying the
+     * data of each read into a new array.
+     */
+    private static class ByteArrayListenerAdapter implements BufferListener {
+        private final Listener mListener;
+
+        ByteArrayListenerAdapter(Listener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void onNewData(ByteBuffer data) {
+            final byte[] copy = new byte[data.remaining()];
+            data.get(copy);
+            mListener.onNewData(copy);
+        }
+
+        @Override
+        public void onRunError(Exception e) {
+            mListener.onRunError(e);
+        }
+    }
+
     /**
      * Creates a new instance with no listener.
      */
@@ -86,26 +176,197 @@ public class SerialInputOutputManager implements Runnable {
      * Creates a new instance with the provided listener.
      */
     public SerialInputOutputManager(UsbSerialPort driver, Listener listener) {
+        this(driver, listener, TransmitQueue.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new instance with the provided listener.
+     *
+     * @param transmitQueueCapacity the maximum number of frames waiting to be written
+     */
+    public SerialInputOutputManager(UsbSerialPort driver, Listener listener, int transmitQueueCapacity) {
         mDriver = driver;
-        mListener = listener;
+        setListener(listener);
+        mTransmitQueue = new TransmitQueue(transmitQueueCapacity);
     }
 
+    /**
+     * Sets a listener which receives a copy of each read. Replaces the
+     * {@link BufferListener}.
+     */
     public synchronized void setListener(Listener listener) {
         mListener = listener;
+        mBufferListener = listener != null ? new ByteArrayListenerAdapter(listener) : null;
     }
 
+    /**
+     * Returns the listener set with {@link #setListener(Listener)}, or
+     * {@code null} if a {@link BufferListener} is used instead.
+     */
     public synchronized Listener getListener() {
         return mListener;
     }
 
-    public void writeAsync(byte[] data) {
-        synchronized (mWriteBuffer) {
-            mWriteBuffer.put(data);
+    /**
+     * Sets a listener which reads the data straight out of the read buffer.
+     * Replaces the {@link Listener}.
+     */
+    public synchronized void setBufferListener(BufferListener listener) {
+        mListener = null;
+        mBufferListener = listener;
+    }
+
+    public synchronized BufferListener getBufferListener() {
+        return mBufferListener;
+    }
+
+    /**
+     * Sets the number of asynchronous read requests kept in flight, so the
+     * bus is serviced while received data is handled. Takes effect the next
+     * time the manager is run. Falls back to blocking reads if the port does
+     * not support asynchronous reads.
+     *
+     * @param readRequestCount the number of requests, or 0 for blocking reads
+     */
+    public synchronized void setReadRequestCount(int readRequestCount) {
+        mReadRequestCount = readRequestCount;
+    }
+
+    public synchronized int getReadRequestCount() {
+        return mReadRequestCount;
+    }
+
+    /**
+     * Queues a frame for writing, without waiting for space in the transmit
+     * queue. The frame must not be changed after it has been queued.
+     *
+     * @return {@code false} if the transmit queue is full
+     */
+    public boolean writeAsync(byte[] data) {
+        return mTransmitQueue.offer(data);
+    }
+
+    /**
+     * Queues a frame for writing with a priority, without waiting for space
+     * in the transmit queue. Frames of a higher priority are written first.
+     *
+     * @param priority one of the {@link TransmitQueue} priorities
+     * @return {@code false} if the priority class of the transmit queue is
+     * full
+     */
+    public boolean writeAsync(byte[] data, int priority) {
+        return mTransmitQueue.offer(data, priority);
+    }
+
+    /**
+     * Queues a frame for writing, waiting up to the timeout for space in the
+     * transmit queue.
+     *
+     * @return {@code false} if the transmit queue was still full when the
+     * timeout expired
+     */
+    public boolean writeAsync(byte[] data, long timeout, TimeUnit unit) throws InterruptedException {
+        return mTransmitQueue.offer(data, timeout, unit);
+    }
+
+    /**
+     * Queues a frame for writing, waiting for space in the transmit queue as
+     * long as it takes.
+     */
+    public void writeBlocking(byte[] data) throws InterruptedException {
+        mTransmitQueue.put(data);
+    }
+
+    /**
+     * Queues a frame for writing with a priority, waiting for space in the
+     * transmit queue as long as it takes.
+     *
+     * @param priority one of the {@link TransmitQueue} priorities
+     */
+    public void writeBlocking(byte[] data, int priority) throws InterruptedException {
+        mTransmitQueue.put(data, priority);
+    }
+
+    /**
+     * Selects the trade-off between latency and throughput. Takes effect
+     * with the next read and write, also while running. The default is
+     * {@link IoMode#BALANCED}.
+     */
+    public synchronized void setIoMode(IoMode ioMode) {
+        if (ioMode == null) {
+            throw new IllegalArgumentException("ioMode must not be null");
         }
+        mIoMode = ioMode;
+        mIoParameters = ioMode.getInitialParameters();
+        if (ioMode == IoMode.ADAPTIVE) {
+            mReadTunerReset = true;
+        }
+    }
+
+    public IoMode getIoMode() {
+        return mIoMode;
+    }
+
+    /**
+     * Returns when the data handed to {@link BufferListener#onNewData(ByteBuffer)}
+     * was read: the time the read returned, or the time its USB request
+     * completed when reading with a {@link UsbReadPipeline}. Must be called
+     * from the listener, on the reading thread.
+     *
+     * @return the {@link System#nanoTime()} at which the data was read
+     */
+    public long getReadTimestampNanos() {
+        return mReadTimestampNanos;
+    }
+
+    /**
+     * Returns the transfer sizes and timeouts in use. These change while an
+     * {@link IoMode#ADAPTIVE} manager runs.
+     */
+    public IoParameters getIoParameters() {
+        return mIoParameters;
+    }
+
+    /**
+     * Enables or disables write coalescing. When enabled, the writer holds
+     * back frames for up to the delay, and packs them into writes of whole
+     * max size packets, so many small frames take few USB transactions. A
+     * write is made when the delay expires, when the write buffer is full,
+     * when a {@link TransmitQueue#PRIORITY_HIGH} frame is taken, or when
+     * {@link #flush()} is called. When disabled, frames are written
+     * as soon as they are queued, together with the frames already waiting.
+     *
+     * @param enabled whether to coalesce writes
+     * @param maxDelayMicros the longest time a frame is held back
+     */
+    public void setWriteCoalescing(boolean enabled, int maxDelayMicros) {
+        mCoalescingDelayNanos = enabled ? maxDelayMicros * 1000L : -1;
+    }
+
+    public boolean isWriteCoalescing() {
+        return mCoalescingDelayNanos >= 0;
     }
 
-    public synchronized void stop() {
-        if (getState() == State.RUNNING) {
+    /**
+     * Makes the writer write the frames it is holding back for coalescing
+     * without waiting for the delay to expire. Does not wait for the write.
+     */
+    public void flush() {
+        mTransmitQueue.requestFlush();
+    }
+
+    /**
+     * Returns the transmit queue, for its size and counters.
+     */
+    public TransmitQueue getTransmitQueue() {
+        return mTransmitQueue;
+    }
+
+    public void stop() {
+        synchronized (this) {
+            if (mState != State.RUNNING) {
+                return;
+            }
             Log.i(TAG, "Stop requested");
             mState = State.STOPPING;
         }
@@ -119,8 +380,13 @@ public class SerialInputOutputManager implements Runnable {
      * Continuously services the read and write buffers until {@link #stop()} is
      * called, or until a driver exception is raised.
      *
-     * NOTE(mikey): Uses inefficient read/write-with-timeout.
-     * TODO(mikey): Read asynchronously with {@link android.hardware.usb.UsbRequest#queue(java.nio.ByteBuffer, int)}
+     * Reads on the calling thread, and writes on a writer thread which waits
+     * on the {@link TransmitQueue}, so outgoing data does not wait for a read
+     * to time out. An error on either thread stops both, and is
+     * reported once. The manager is stopped when both threads have ended.
+     *
+     * Reads asynchronously with a {@link UsbReadPipeline} if a read request
+     * count has been set, and with blocking reads otherwise.
      */
     @Override
     public void run() {
@@ -129,62 +395,209 @@ public class SerialInputOutputManager implements Runnable {
                 throw new IllegalStateException("Already running.");
             }
             mState = State.RUNNING;
+            mRunError = null;
         }
 
         Log.i(TAG, "Running ..");
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (getState() == State.RUNNING) {
+                        writeStep();
+                    }
+                } catch (Exception e) {
+                    onError(e);
+                }
+            }
+        }, "serial-writer");
         try {
+            writer.start();
+            mReadPacketSize = mDriver.getReadPacketSize();
+            final int readRequestCount = getReadRequestCount();
+            if (readRequestCount > 0) {
+                mReadPipeline = mDriver.createReadPipeline(readRequestCount);
+                if (mReadPipeline != null) {
+                    mReadPipeline.start();
+                    Log.i(TAG, "Reading with " + readRequestCount + " requests in flight");
+                }
+            }
             while (true) {
                 if (getState() != State.RUNNING) {
                     Log.i(TAG, "Stopping mState=" + getState());
                     break;
                 }
-                step();
+                readStep();
             }
         } catch (Exception e) {
-            Log.w(TAG, "Run ending due to exception: " + e.getMessage(), e);
-            final Listener listener = getListener();
-            if (listener != null) {
-              listener.onRunError(e);
-            }
+            onError(e);
         } finally {
+            stop();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (mReadPipeline != null) {
+                mReadPipeline.close();
+                mReadPipeline = null;
+            }
+            final Exception runError;
             synchronized (this) {
+                runError = mRunError;
                 mState = State.STOPPED;
                 Log.i(TAG, "Stopped.");
             }
+            if (runError != null) {
+                final BufferListener listener = getBufferListener();
+                if (listener != null) {
+                    listener.onRunError(runError);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the first error of the reader or writer thread, and stops both.
+     */
+    private void onError(Exception e) {
+        Log.w(TAG, "Run ending due to exception: " + e.getMessage(), e);
+        synchronized (this) {
+            if (mRunError == null) {
+                mRunError = e;
+            }
         }
+        stop();
     }
 
-    private void step() throws IOException {
-        // Handle incoming data.
-        int len = mDriver.read(mReadBuffer.array(), READ_WAIT_MILLIS);
+    private void readStep() throws IOException {
+        final IoParameters parameters = mIoParameters;
+        final int readSize = packetReadSize(parameters.getReadSize(), mReadPacketSize);
+        final int index = readBufferIndex(readSize);
+        if (mReadBuffers[index] == null) {
+            mReadBuffers[index] = new byte[readSize];
+            mReadViews[index] = ByteBuffer.wrap(mReadBuffers[index]).asReadOnlyBuffer();
+        }
+        final byte[] readBuffer = mReadBuffers[index];
+        int len = mReadPipeline != null
+                ? mReadPipeline.read(readBuffer, parameters.getReadTimeoutMillis())
+                : mDriver.read(readBuffer, parameters.getReadTimeoutMillis());
+        final long nowNanos = System.nanoTime();
         if (len > 0) {
+            mReadTimestampNanos = mReadPipeline != null ? mReadPipeline.getReadTimestampNanos() : nowNanos;
             if (DEBUG) Log.d(TAG, "Read data len=" + len);
-            final Listener listener = getListener();
+            final BufferListener listener = getBufferListener();
             if (listener != null) {
-                final byte[] data = new byte[len];
-                mReadBuffer.get(data, 0, len);
-                listener.onNewData(data);
+                final ByteBuffer readView = mReadViews[index];
+                readView.clear();
+                readView.limit(len);
+                listener.onNewData(readView);
+            }
+        }
+        if (mIoMode == IoMode.ADAPTIVE) {
+            if (mReadTunerReset) {
+                // Measured from the next read, so the window does not span the change of mode
+                mReadTunerReset = false;
+                mReadTuner.reset();
+                return;
             }
-            mReadBuffer.clear();
+            final IoParameters tuned = mReadTuner.onRead(parameters, Math.max(len, 0), nowNanos);
+            if (tuned != parameters) {
+                onTuned(parameters, tuned);
+            }
+        }
+    }
+
+    private synchronized void onTuned(IoParameters previous, IoParameters tuned) {
+        // Dropped if the mode was changed during the read
+        if (mIoMode == IoMode.ADAPTIVE && mIoParameters == previous) {
+            mIoParameters = tuned;
+            if (DEBUG) Log.d(TAG, "Tuned " + tuned);
         }
+    }
 
-        // Handle outgoing data.
-        byte[] outBuff = null;
-        synchronized (mWriteBuffer) {
-            len = mWriteBuffer.position();
-            if (len > 0) {
-                outBuff = new byte[len];
-                mWriteBuffer.rewind();
-                mWriteBuffer.get(outBuff, 0, len);
-                mWriteBuffer.clear();
+    /**
+     * Rounds a read size up to whole packets of the read endpoint, as a read
+     * of less than one packet overflows when the device sends a full one. Bulk
+     * packet sizes are powers of two, so the result stays a power of two.
+     */
+    private static int packetReadSize(int readSize, int packetSize) {
+        if (packetSize <= 0 || readSize % packetSize == 0) {
+            return readSize;
+        }
+        return Math.min((readSize / packetSize + 1) * packetSize, IoMode.MAX_TRANSFER_SIZE);
+    }
+
+    private static int readBufferIndex(int readSize) {
+        return Integer.numberOfTrailingZeros(readSize) - Integer.numberOfTrailingZeros(IoMode.MIN_READ_SIZE);
+    }
+
+    private void writeStep() throws IOException, InterruptedException {
+        byte[] frame = mPendingFrame;
+        mPendingFrame = null;
+        if (frame == null) {
+            frame = mTransmitQueue.poll(WRITE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            if (frame == null) {
+                return;
             }
         }
-        if (outBuff != null) {
-            if (DEBUG) {
-                Log.d(TAG, "Writing data len=" + len);
+
+        final IoParameters parameters = mIoParameters;
+        final int writeSize = parameters.getWriteSize();
+        final long delayNanos = mCoalescingDelayNanos;
+        final boolean coalescing = delayNanos >= 0;
+        final long deadline = System.nanoTime() + delayNanos;
+        final int packetSize = mDriver.getWritePacketSize();
+        mWriteBuffer.clear();
+        mWriteBuffer.limit(writeSize);
+        if (coalescing && packetSize > 0 && packetSize <= writeSize) {
+            // Only the last packet of a coalesced write can be short
+            mWriteBuffer.limit(writeSize / packetSize * packetSize);
+        }
+
+        int frameCount = 0;
+        while (frame != null) {
+            if (frame == TransmitQueue.FLUSH) {
+                if (coalescing) {
+                    break;
+                }
+            } else if (frame.length > mWriteBuffer.remaining()) {
+                if (frameCount == 0) {
+                    // Larger than the write buffer, so written on its own
+                    write(frame, frame.length, 1, parameters.getWriteTimeoutMillis());
+                    return;
+                }
+                mPendingFrame = frame;
+                break;
+            } else {
+                mWriteBuffer.put(frame);
+                frameCount++;
+                if (!mWriteBuffer.hasRemaining()) {
+                    break;
+                }
+                if (coalescing && mTransmitQueue.getLastPriority() == TransmitQueue.PRIORITY_HIGH) {
+                    // High priority frames are not held back
+                    break;
+                }
             }
-            mDriver.write(outBuff, READ_WAIT_MILLIS);
+            if (coalescing) {
+                final long waitNanos = deadline - System.nanoTime();
+                frame = waitNanos > 0 ? mTransmitQueue.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+            } else {
+                frame = mTransmitQueue.poll();
+            }
+        }
+        if (frameCount > 0) {
+            write(mWriteBuffer.array(), mWriteBuffer.position(), frameCount, parameters.getWriteTimeoutMillis());
+        }
+    }
+
+    private void write(byte[] src, int length, int frameCount, int timeoutMillis) throws IOException {
+        if (DEBUG) {
+            Log.d(TAG, "Writing data len=" + length + " frames=" + frameCount);
         }
+        mDriver.write(src, 0, length, timeoutMillis);
+        mTransmitQueue.onWritten(frameCount);
     }
 
 }
@@ -0,0 +1,454 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.usbserial.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of frames waiting to be written to a port. Each entry is one frame, which is written as a whole.
+ * <p/>
+ * Frames are queued in one of {@link #PRIORITY_COUNT} priority classes, each of which is bounded on its own, so
+ * a burst of low priority frames cannot keep a high priority frame out. The writer always takes the oldest frame
+ * of the highest priority class which has one, except that a waiting lower priority class is served once after
+ * it has been passed over {@link #getStarvationLimit()} times, so it is never starved completely.
+ * <p/>
+ * The queue does not copy the frames, so a caller must not change a frame after it has been queued. Callers which
+ * must not block use {@link #offer(byte[])}, and slow down when it is rejected. Others wait for space with
+ * {@link #offer(byte[], long, TimeUnit)} or {@link #put(byte[])}.
+ */
+public class TransmitQueue {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Control frames, which must be written with a predictable latency
+     */
+    public static final int PRIORITY_HIGH = 0;
+
+    /**
+     * The priority of frames queued without a priority
+     */
+    public static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * Bulk transfers, such as replays and test bursts
+     */
+    public static final int PRIORITY_LOW = 2;
+
+    public static final int PRIORITY_COUNT = 3;
+
+    public static final int DEFAULT_STARVATION_LIMIT = 64;
+
+    /**
+     * Returned by {@link #poll(long, TimeUnit)} after {@link #requestFlush()} once the queue is empty, to wake the
+     * writer. Not counted as a frame.
+     */
+    static final byte[] FLUSH = new byte[0];
+
+    private final int mCapacity;
+    private final ArrayDeque<byte[]>[] mFrames;
+    private final int[] mPassedOver = new int[PRIORITY_COUNT];
+    private final int[] mHighWaterMark = new int[PRIORITY_COUNT];
+    private int mSize;
+    private int mStarvationLimit = DEFAULT_STARVATION_LIMIT;
+    private boolean mFlushRequested;
+    private int mLastPriority = PRIORITY_NORMAL;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition[] mNotFull = new Condition[PRIORITY_COUNT];
+
+    private final AtomicLong[] mQueuedCount = new AtomicLong[PRIORITY_COUNT];
+    private final AtomicLong[] mRejectedCount = new AtomicLong[PRIORITY_COUNT];
+    private final AtomicLong mSentCount = new AtomicLong();
+    private final AtomicLong mWriteCount = new AtomicLong();
+    private final AtomicLong mStarvationCount = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of queued frames of each priority class
+     */
+    @SuppressWarnings("unchecked")
+    public TransmitQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        mFrames = new ArrayDeque[PRIORITY_COUNT];
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mFrames[i] = new ArrayDeque<byte[]>(Math.min(capacity, 64));
+            mNotFull[i] = mLock.newCondition();
+            mQueuedCount[i] = new AtomicLong();
+            mRejectedCount[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Queues a frame with {@link #PRIORITY_NORMAL} if there is space, without waiting
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(byte[] frame) {
+        return offer(frame, PRIORITY_NORMAL);
+    }
+
+    /**
+     * Queues a frame if there is space in its priority class, without waiting
+     *
+     * @return false if the priority class is full
+     */
+    public boolean offer(byte[] frame, int priority) {
+        checkPriority(priority);
+        mLock.lock();
+        try {
+            return onOffer(enqueue(frame, priority), priority);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Queues a frame with {@link #PRIORITY_NORMAL}, waiting up to the timeout for space
+     *
+     * @return false if the queue was still full when the timeout expired
+     */
+    public boolean offer(byte[] frame, long timeout, TimeUnit unit) throws InterruptedException {
+        return offer(frame, PRIORITY_NORMAL, timeout, unit);
+    }
+
+    /**
+     * Queues a frame, waiting up to the timeout for space in its priority class
+     *
+     * @return false if the priority class was still full when the timeout expired
+     */
+    public boolean offer(byte[] frame, int priority, long timeout, TimeUnit unit) throws InterruptedException {
+        checkPriority(priority);
+        long nanos = unit.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            while (!enqueue(frame, priority)) {
+                if (nanos <= 0) {
+                    return onOffer(false, priority);
+                }
+                nanos = mNotFull[priority].awaitNanos(nanos);
+            }
+            return onOffer(true, priority);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Queues a frame with {@link #PRIORITY_NORMAL}, waiting for space as long as it takes
+     */
+    public void put(byte[] frame) throws InterruptedException {
+        put(frame, PRIORITY_NORMAL);
+    }
+
+    /**
+     * Queues a frame, waiting for space in its priority class as long as it takes
+     */
+    public void put(byte[] frame, int priority) throws InterruptedException {
+        checkPriority(priority);
+        mLock.lockInterruptibly();
+        try {
+            while (!enqueue(frame, priority)) {
+                mNotFull[priority].await();
+            }
+            onOffer(true, priority);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the next frame, or null if no frame was queued within the timeout
+     */
+    byte[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            byte[] frame;
+            while ((frame = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            return frame;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the next frame, or null if the queue is empty
+     */
+    byte[] poll() {
+        mLock.lock();
+        try {
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Asks the writer to write the frames it is holding back, together with the frames queued up to now
+     */
+    void requestFlush() {
+        mLock.lock();
+        try {
+            mFlushRequested = true;
+            mNotEmpty.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the priority class of the frame last taken by the writer
+     */
+    int getLastPriority() {
+        mLock.lock();
+        try {
+            return mLastPriority;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    void onWritten(int frameCount) {
+        mSentCount.addAndGet(frameCount);
+        mWriteCount.incrementAndGet();
+    }
+
+    /**
+     * Drops the queued frames
+     */
+    public void clear() {
+        mLock.lock();
+        try {
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                mFrames[i].clear();
+                mPassedOver[i] = 0;
+                mNotFull[i].signalAll();
+            }
+            mSize = 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of queued frames of all priority classes
+     */
+    public int size() {
+        mLock.lock();
+        try {
+            return mSize;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of queued frames of a priority class
+     */
+    public int size(int priority) {
+        checkPriority(priority);
+        mLock.lock();
+        try {
+            return mFrames[priority].size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the maximum number of queued frames of each priority class
+     */
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return the largest number of frames of a priority class which have been queued at the same time
+     */
+    public int getHighWaterMark(int priority) {
+        checkPriority(priority);
+        mLock.lock();
+        try {
+            return mHighWaterMark[priority];
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Sets the number of times a waiting priority class may be passed over for higher priority frames before it is
+     * served once anyway
+     */
+    public void setStarvationLimit(int starvationLimit) {
+        if (starvationLimit <= 0) {
+            throw new IllegalArgumentException("Starvation limit must be positive: " + starvationLimit);
+        }
+        mLock.lock();
+        try {
+            mStarvationLimit = starvationLimit;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getStarvationLimit() {
+        mLock.lock();
+        try {
+            return mStarvationLimit;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of frames accepted so far
+     */
+    public long getQueuedCount() {
+        long count = 0;
+        for (AtomicLong queued : mQueuedCount) {
+            count += queued.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of frames of a priority class accepted so far
+     */
+    public long getQueuedCount(int priority) {
+        checkPriority(priority);
+        return mQueuedCount[priority].get();
+    }
+
+    /**
+     * @return the number of frames written to the port so far
+     */
+    public long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * @return the number of frames rejected because the queue was full
+     */
+    public long getRejectedCount() {
+        long count = 0;
+        for (AtomicLong rejected : mRejectedCount) {
+            count += rejected.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of frames of a priority class rejected because the class was full
+     */
+    public long getRejectedCount(int priority) {
+        checkPriority(priority);
+        return mRejectedCount[priority].get();
+    }
+
+    /**
+     * @return the number of writes to the port so far. Several frames can be written at once.
+     */
+    public long getWriteCount() {
+        return mWriteCount.get();
+    }
+
+    /**
+     * @return the number of frames taken ahead of higher priority frames by the starvation protection
+     */
+    public long getStarvationCount() {
+        return mStarvationCount.get();
+    }
+
+    private boolean enqueue(byte[] frame, int priority) {
+        ArrayDeque<byte[]> frames = mFrames[priority];
+        if (frames.size() >= mCapacity) {
+            return false;
+        }
+        frames.addLast(frame);
+        mSize++;
+        if (frames.size() > mHighWaterMark[priority]) {
+            mHighWaterMark[priority] = frames.size();
+        }
+        mNotEmpty.signal();
+        return true;
+    }
+
+    private byte[] dequeue() {
+        int highest = -1;
+        int starved = -1;
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            if (mFrames[i].isEmpty()) {
+                continue;
+            }
+            if (highest < 0) {
+                highest = i;
+            } else if (starved < 0 && mPassedOver[i] >= mStarvationLimit) {
+                starved = i;
+            }
+        }
+        if (highest < 0) {
+            if (mFlushRequested) {
+                mFlushRequested = false;
+                return FLUSH;
+            }
+            return null;
+        }
+        int priority = highest;
+        if (starved >= 0) {
+            priority = starved;
+            mStarvationCount.incrementAndGet();
+        }
+        for (int i = priority + 1; i < PRIORITY_COUNT; i++) {
+            if (!mFrames[i].isEmpty()) {
+                mPassedOver[i]++;
+            }
+        }
+        mPassedOver[priority] = 0;
+        mLastPriority = priority;
+        mSize--;
+        mNotFull[priority].signal();
+        return mFrames[priority].pollFirst();
+    }
+
+    private boolean onOffer(boolean queued, int priority) {
+        if (queued) {
+            mQueuedCount[priority].incrementAndGet();
+        } else {
+            mRejectedCount[priority].incrementAndGet();
+        }
+        return queued;
+    }
+
+    private static void checkPriority(int priority) {
+        if (priority < 0 || priority >= PRIORITY_COUNT) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+    }
+}
@@ -14,27 +14,34 @@
  * Contributors:
  *     Afkham Azeez (afkham@gmail.com)
  */
-package lk.vega.cantool.can.messages;
+package lk.vega.cantool;
 
-import lk.vega.cantool.can.CanMessage;
-import lk.vega.usbserial.util.SerialInputOutputManager;
+import android.util.Log;
+
+import lk.vega.cantool.can.CanLog;
 
 /**
- * TODO: Class comments
+ * Forwards the log records of the CAN pipeline to {@link android.util.Log}
  */
-public abstract class CanMessageBroker {
+public class AndroidCanLogger implements CanLog.CanLogger {
 
-    private SerialInputOutputManager serialIoManager;
+    @Override
+    public void d(String tag, String msg) {
+        Log.d(tag, msg);
+    }
 
-    public abstract void messageReceived(CanMessage canMessage);
+    @Override
+    public void i(String tag, String msg) {
+        Log.i(tag, msg);
+    }
 
-    public void sendMessage(CanMessage canMessage){
-        if (serialIoManager != null) {
-            serialIoManager.writeAsync(canMessage.getRaw());
-        }
+    @Override
+    public void w(String tag, String msg, Throwable tr) {
+        Log.w(tag, msg, tr);
     }
 
-    public void setSerialIoManager(SerialInputOutputManager serialIoManager){
-        this.serialIoManager = serialIoManager;
+    @Override
+    public void e(String tag, String msg, Throwable tr) {
+        Log.e(tag, msg, tr);
     }
 }
@@ -0,0 +1,230 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import lk.vega.usbserial.driver.UsbReadPipeline;
+import lk.vega.usbserial.driver.UsbSerialPort;
+import lk.vega.usbserial.util.IoMode;
+import lk.vega.usbserial.util.SerialInputOutputManager;
+
+/**
+ * Captures from one or more adapters at the same time, for example one on the powertrain bus and one on the body
+ * bus. Each port has its own {@link SerialInputOutputManager} on its own thread. The index of a port in the session
+ * is its source index, which the data is handed to the {@link Listener} with, so that it can be fed to the same
+ * source of a {@link lk.vega.cantool.can.CanPipeline}.
+ */
+public class CaptureSession {
+
+    private static final String TAG = CaptureSession.class.getSimpleName();
+
+    /**
+     * How long {@link #stop()} waits for the I/O managers to end. A manager ends within a read timeout and a
+     * queue poll, so this is only reached if a driver hangs.
+     */
+    private static final long STOP_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Receives the data of all the ports of a session. Called on the I/O thread of the port, so each source is
+     * always called on the same thread.
+     */
+    public interface Listener {
+        /**
+         * @param source        the index of the port
+         * @param data          the received data, which is only valid until this method returns
+         * @param receivedNanos the {@link System#nanoTime()} at which the data was read from the port
+         */
+        public void onNewData(int source, ByteBuffer data, long receivedNanos);
+
+        public void onRunError(int source, Exception e);
+    }
+
+    private final UsbSerialPort[] ports;
+    private final SerialInputOutputManager[] ioManagers;
+    private final Future<?>[] ioTasks;
+    private final ExecutorService executor;
+    private boolean open;
+
+    /**
+     * @param ports the ports, in source order
+     */
+    public CaptureSession(List<UsbSerialPort> ports) {
+        if (ports.isEmpty()) {
+            throw new IllegalArgumentException("A capture session needs at least one port");
+        }
+        this.ports = ports.toArray(new UsbSerialPort[ports.size()]);
+        this.ioManagers = new SerialInputOutputManager[this.ports.length];
+        this.ioTasks = new Future<?>[this.ports.length];
+        // Not a fixed pool, so a manager which did not stop in time cannot hold up the next start
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    public int getSourceCount() {
+        return ports.length;
+    }
+
+    public UsbSerialPort getPort(int source) {
+        return ports[source];
+    }
+
+    /**
+     * @return the I/O manager of a port, or null if the session has not been started
+     */
+    public synchronized SerialInputOutputManager getIoManager(int source) {
+        return ioManagers[source];
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    public synchronized boolean isStarted() {
+        return ioManagers[0] != null;
+    }
+
+    /**
+     * Opens all the ports. If a port cannot be opened, the ports which were opened are closed again.
+     *
+     * @throws IOException if a port cannot be opened
+     */
+    public synchronized void open(UsbManager usbManager, int baudRate) throws IOException {
+        if (open) {
+            return;
+        }
+        for (int i = 0; i < ports.length; i++) {
+            UsbDeviceConnection connection = usbManager.openDevice(ports[i].getDriver().getDevice());
+            try {
+                if (connection == null) {
+                    throw new IOException("Opening device " + ports[i].getDriver().getDevice().getDeviceName()
+                            + " failed");
+                }
+                ports[i].open(connection);
+                ports[i].setParameters(baudRate, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
+            } catch (IOException e) {
+                closePorts(connection == null ? i : i + 1);
+                throw e;
+            }
+        }
+        open = true;
+    }
+
+    /**
+     * Starts an I/O manager for each port. Any running managers are stopped first.
+     */
+    public synchronized void start(final Listener listener, IoMode ioMode) {
+        stop();
+        for (int i = 0; i < ports.length; i++) {
+            final int source = i;
+            final SerialInputOutputManager ioManager = new SerialInputOutputManager(ports[i]);
+            ioManager.setBufferListener(new SerialInputOutputManager.BufferListener() {
+                @Override
+                public void onNewData(ByteBuffer data) {
+                    listener.onNewData(source, data, ioManager.getReadTimestampNanos());
+                }
+
+                @Override
+                public void onRunError(Exception e) {
+                    listener.onRunError(source, e);
+                }
+            });
+            ioManager.setReadRequestCount(UsbReadPipeline.DEFAULT_REQUEST_COUNT);
+            ioManager.setIoMode(ioMode);
+            ioManagers[i] = ioManager;
+        }
+        for (int i = 0; i < ioManagers.length; i++) {
+            ioTasks[i] = executor.submit(ioManagers[i]);
+        }
+    }
+
+    public synchronized void setIoMode(IoMode ioMode) {
+        for (SerialInputOutputManager ioManager : ioManagers) {
+            if (ioManager != null) {
+                ioManager.setIoMode(ioMode);
+            }
+        }
+    }
+
+    /**
+     * Stops the I/O managers & waits for them to end, for at most {@link #STOP_TIMEOUT_MILLIS}, leaving the ports
+     * open
+     */
+    public synchronized void stop() {
+        for (SerialInputOutputManager ioManager : ioManagers) {
+            if (ioManager != null) {
+                ioManager.stop();
+            }
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MILLIS);
+        for (int i = 0; i < ioTasks.length; i++) {
+            if (ioTasks[i] != null) {
+                try {
+                    ioTasks[i].get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    Log.w(TAG, "I/O manager " + i + " did not stop within " + STOP_TIMEOUT_MILLIS + " ms");
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "I/O manager " + i + " failed: " + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ioTasks[i] = null;
+            }
+            ioManagers[i] = null;
+        }
+    }
+
+    /**
+     * Stops the I/O managers & closes the ports
+     */
+    public synchronized void close() {
+        stop();
+        if (open) {
+            open = false;
+            closePorts(ports.length);
+        }
+    }
+
+    /**
+     * Closes the session & stops its threads. The session cannot be used afterwards.
+     */
+    public synchronized void shutdown() {
+        close();
+        executor.shutdown();
+    }
+
+    private void closePorts(int count) {
+        for (int i = 0; i < count; i++) {
+            try {
+                ports[i].close();
+            } catch (IOException e) {
+                Log.d(TAG, "Error closing port " + i + ": " + e.getMessage());
+            }
+        }
+    }
+}
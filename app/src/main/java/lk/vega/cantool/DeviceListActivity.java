@@ -22,14 +22,13 @@
 package lk.vega.cantool;
 
 import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
-import android.os.SystemClock;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -45,17 +44,34 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import lk.vega.cantool.can.AssetLoader;
+import lk.vega.cantool.can.CanLog;
 import lk.vega.cantool.can.CanMessageTemplateDB;
 import lk.vega.usbserial.driver.UsbSerialDriver;
 import lk.vega.usbserial.driver.UsbSerialPort;
 import lk.vega.usbserial.driver.UsbSerialProber;
-import lk.vega.usbserial.util.HexDump;
+import lk.vega.cantool.util.HexDump;
 
 /**
  * Shows a {@link android.widget.ListView} of available USB devices.
+ * <p/>
+ * The list is built once when the activity is created, and then kept up to
+ * date from the USB attach and detach broadcasts, which are received for as
+ * long as the activity exists, so none are missed while it is paused. Only
+ * the device which was attached is probed. Probing runs on a background
+ * thread, one probe at a time.
+ * <p/>
+ * Tapping a port captures from it alone. A long press captures from all the
+ * listed ports at the same time.
  *
  * @author mike wakerly (opensource@hoho.com)
  */
@@ -64,29 +80,35 @@ public class DeviceListActivity extends Activity {
     private final String TAG = DeviceListActivity.class.getSimpleName();
 
     private UsbManager mUsbManager;
+
+    // Kept between refreshes, so attached devices keep their drivers
+    private final UsbSerialProber mProber = UsbSerialProber.getDefaultProber();
+    private final ExecutorService mProbeExecutor = Executors.newSingleThreadExecutor();
     private ListView mListView;
     private TextView mProgressBarTitle;
     private ProgressBar mProgressBar;
 
-    private static final int MESSAGE_REFRESH = 101;
-    private static final long REFRESH_TIMEOUT_MILLIS = 5000;
-
-    private final Handler mHandler = new Handler() {
+    private final BroadcastReceiver mUsbReceiver = new BroadcastReceiver() {
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MESSAGE_REFRESH:
-                    refreshDeviceList();
-                    mHandler.sendEmptyMessageDelayed(MESSAGE_REFRESH, REFRESH_TIMEOUT_MILLIS);
-                    break;
-                default:
-                    super.handleMessage(msg);
-                    break;
+        public void onReceive(Context context, Intent intent) {
+            final UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+            if (device == null) {
+                return;
+            }
+            if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(intent.getAction())) {
+                onDeviceAttached(device);
+            } else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(intent.getAction())) {
+                onDeviceDetached(device);
             }
         }
-
     };
 
+    /**
+     * The ports of each attached device with a driver, in the order the
+     * devices were found. key - device name
+     */
+    private final Map<String, List<UsbSerialPort>> mPortsByDevice = new LinkedHashMap<String, List<UsbSerialPort>>();
+
     private List<UsbSerialPort> mEntries = new ArrayList<UsbSerialPort>();
     private ArrayAdapter<UsbSerialPort> mAdapter;
 
@@ -95,7 +117,13 @@ public class DeviceListActivity extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
 
-        CanMessageTemplateDB.parse(this);
+        CanLog.setLogger(new AndroidCanLogger());
+        CanMessageTemplateDB.parse(new AssetLoader() {
+            @Override
+            public InputStream open(String name) throws IOException {
+                return getAssets().open(name);
+            }
+        });
 
         mUsbManager = (UsbManager) getSystemService(Context.USB_SERVICE);
         mListView = (ListView) findViewById(R.id.deviceList);
@@ -146,55 +174,128 @@ public class DeviceListActivity extends Activity {
                 showConsoleActivity(port);
             }
         });
+
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+        filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+        registerReceiver(mUsbReceiver, filter);
+        refreshDeviceList();
+
+        mListView.setOnItemLongClickListener(new ListView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+                if (mEntries.isEmpty()) {
+                    return false;
+                }
+                Log.d(TAG, "Capturing from all " + mEntries.size() + " ports");
+                SerialConsoleActivity.show(DeviceListActivity.this, new ArrayList<UsbSerialPort>(mEntries));
+                return true;
+            }
+        });
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        mHandler.sendEmptyMessage(MESSAGE_REFRESH);
+    protected void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(mUsbReceiver);
+        mProbeExecutor.shutdownNow();
     }
 
     @Override
-    protected void onPause() {
-        super.onPause();
-        mHandler.removeMessages(MESSAGE_REFRESH);
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        // Started again by the USB_DEVICE_ATTACHED intent filter
+        if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(intent.getAction())) {
+            final UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+            if (device != null) {
+                onDeviceAttached(device);
+            }
+        }
     }
 
-    private void refreshDeviceList() {
-        showProgressBar();
-
-        new AsyncTask<Void, Void, List<UsbSerialPort>>() {
+    private void onDeviceAttached(final UsbDevice device) {
+        if (mPortsByDevice.containsKey(device.getDeviceName())) {
+            return;
+        }
+        mProbeExecutor.execute(new Runnable() {
             @Override
-            protected List<UsbSerialPort> doInBackground(Void... params) {
-                Log.d(TAG, "Refreshing device list ...");
-                SystemClock.sleep(1000);
-
-                final List<UsbSerialDriver> drivers =
-                        UsbSerialProber.getDefaultProber().findAllDrivers(mUsbManager);
-
-                final List<UsbSerialPort> result = new ArrayList<UsbSerialPort>();
-                for (final UsbSerialDriver driver : drivers) {
-                    final List<UsbSerialPort> ports = driver.getPorts();
-                    Log.d(TAG, String.format("+ %s: %s port%s",
-                            driver, ports.size(), ports.size() == 1 ? "" : "s"));
-                    result.addAll(ports);
-                }
+            public void run() {
+                final UsbSerialDriver driver = mProber.probeDevice(device);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (driver == null) {
+                            Log.d(TAG, "No driver for attached device " + device.getDeviceName());
+                        } else if (mUsbManager.getDeviceList().containsKey(device.getDeviceName())) {
+                            // Not detached again while it was probed
+                            addDriver(driver);
+                            updateEntries();
+                        }
+                    }
+                });
+            }
+        });
+    }
 
-                return result;
+    private void onDeviceDetached(final UsbDevice device) {
+        // After any probe of the device which is still queued
+        mProbeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mProber.forgetDevice(device);
             }
+        });
+        if (mPortsByDevice.remove(device.getDeviceName()) != null) {
+            Log.d(TAG, "- " + device.getDeviceName());
+            updateEntries();
+        }
+    }
 
+    /**
+     * Probes all attached devices in the background
+     */
+    private void refreshDeviceList() {
+        showProgressBar();
+        Log.d(TAG, "Refreshing device list ...");
+        mProbeExecutor.execute(new Runnable() {
             @Override
-            protected void onPostExecute(List<UsbSerialPort> result) {
-                mEntries.clear();
-                mEntries.addAll(result);
-                mAdapter.notifyDataSetChanged();
-                mProgressBarTitle.setText(
-                        String.format("%s device(s) found", mEntries.size()));
-                hideProgressBar();
-                Log.d(TAG, "Done refreshing, " + mEntries.size() + " entries found.");
+            public void run() {
+                final List<UsbSerialDriver> drivers = mProber.findAllDrivers(mUsbManager);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPortsByDevice.clear();
+                        final Map<String, UsbDevice> attached = mUsbManager.getDeviceList();
+                        for (final UsbSerialDriver driver : drivers) {
+                            // Skips devices detached while the list was probed
+                            if (attached.containsKey(driver.getDevice().getDeviceName())) {
+                                addDriver(driver);
+                            }
+                        }
+                        updateEntries();
+                        hideProgressBar();
+                    }
+                });
             }
+        });
+    }
+
+    private void addDriver(UsbSerialDriver driver) {
+        final List<UsbSerialPort> ports = driver.getPorts();
+        Log.d(TAG, String.format("+ %s: %s port%s",
+                driver, ports.size(), ports.size() == 1 ? "" : "s"));
+        mPortsByDevice.put(driver.getDevice().getDeviceName(), ports);
+    }
 
-        }.execute((Void) null);
+    private void updateEntries() {
+        mEntries.clear();
+        for (final List<UsbSerialPort> ports : mPortsByDevice.values()) {
+            mEntries.addAll(ports);
+        }
+        mAdapter.notifyDataSetChanged();
+        mProgressBarTitle.setText(
+                String.format("%s device(s) found", mEntries.size()));
+        Log.d(TAG, "Device list updated, " + mEntries.size() + " entries found.");
     }
 
     private void showProgressBar() {
@@ -0,0 +1,63 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool;
+
+import lk.vega.usbserial.util.IoMode;
+
+/**
+ * Latency profiles which can be chosen in the {@link SerialConsoleActivity}. A profile sets the {@link IoMode} of
+ * the serial I/O manager, and the latency timer and USB transfer size of FTDI adapters.
+ */
+public enum LatencyProfile {
+
+    LOW_LATENCY("Low latency", IoMode.LOW_LATENCY, 1, 512),
+    BALANCED("Balanced", IoMode.BALANCED, 16, 4096),
+    HIGH_THROUGHPUT("Throughput", IoMode.HIGH_THROUGHPUT, 32, 16 * 1024),
+    ADAPTIVE("Adaptive", IoMode.ADAPTIVE, 2, 16 * 1024);
+
+    private final String label;
+    private final IoMode ioMode;
+    private final int ftdiLatencyTimerMillis;
+    private final int ftdiTransferSize;
+
+    LatencyProfile(String label, IoMode ioMode, int ftdiLatencyTimerMillis, int ftdiTransferSize) {
+        this.label = label;
+        this.ioMode = ioMode;
+        this.ftdiLatencyTimerMillis = ftdiLatencyTimerMillis;
+        this.ftdiTransferSize = ftdiTransferSize;
+    }
+
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public int getFtdiLatencyTimerMillis() {
+        return ftdiLatencyTimerMillis;
+    }
+
+    public int getFtdiTransferSize() {
+        return ftdiTransferSize;
+    }
+
+    /**
+     * @return the name shown in the profile spinner
+     */
+    @Override
+    public String toString() {
+        return label;
+    }
+}
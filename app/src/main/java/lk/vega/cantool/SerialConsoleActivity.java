@@ -26,7 +26,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Color;
-import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
@@ -42,28 +41,32 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Queue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 
 import lk.vega.cantool.can.CanMessage;
-import lk.vega.cantool.can.CanMessageBuilder;
-import lk.vega.cantool.can.CanMessageManager;
 import lk.vega.cantool.can.CanConstants;
+import lk.vega.cantool.can.CanPipeline;
 import lk.vega.cantool.can.CanMessageTemplate;
 import lk.vega.cantool.can.CanMessageTemplateDB;
+import lk.vega.cantool.can.CanMessageWriter;
+import lk.vega.cantool.can.TransmitPriority;
+import lk.vega.cantool.can.WallClock;
+import lk.vega.usbserial.driver.FtdiSerialDriver;
 import lk.vega.usbserial.driver.UsbSerialPort;
-import lk.vega.usbserial.util.HexDump;
+import lk.vega.cantool.util.HexDump;
 import lk.vega.usbserial.util.SerialInputOutputManager;
+import lk.vega.usbserial.util.TransmitQueue;
 
 /**
- * Monitors a single {@link UsbSerialPort} instance, showing all data
- * received.
+ * Monitors one or more {@link UsbSerialPort} instances, showing all data
+ * received. The ports are captured by a {@link CaptureSession}, and the CAN
+ * messages of all the ports are merged in the order they were received.
+ * Messages are sent through the first port.
  *
  * @author mike wakerly (opensource@hoho.com)
  */
@@ -71,11 +74,12 @@ public class SerialConsoleActivity extends Activity {
 
     public static final String BAUD_RATE_KEY = "baudRate";
     public static final String BAUD_RATE_ITEM_POSITION_KEY = "baudRateItemPosition";
+    public static final String LATENCY_PROFILE_KEY = "latencyProfile";
     private final String TAG = SerialConsoleActivity.class.getSimpleName();
 
     /**
-     * Driver instance, passed in statically via
-     * {@link #show(android.content.Context, UsbSerialPort)}.
+     * Driver instances, passed in statically via
+     * {@link #show(android.content.Context, java.util.List)}.
      * <p/>
      * <p/>
      * This is a devious hack; it'd be cleaner to re-create the driver using
@@ -83,12 +87,13 @@ public class SerialConsoleActivity extends Activity {
      * can get away with it because both activities will run in the same
      * process, and this is a simple demo.
      */
-    private static UsbSerialPort sPort = null;
+    private static List<UsbSerialPort> sPorts = Collections.emptyList();
 
     private TextView mTitleTextView;
     private TextView mDumpTextView;
     private ScrollView mScrollView;
     private Spinner mSpinner;
+    private Spinner mLatencyProfileSpinner;
     private Button mStartButton;
     private Button mClearButton;
     private Button mRawCanButton;
@@ -100,31 +105,30 @@ public class SerialConsoleActivity extends Activity {
     private boolean initialized;
     private boolean isCanView = true;
 
-    private Queue<byte[]> rawMsgQueue = new LinkedBlockingQueue<>();
-    private Queue<CanMessage> canMsgQueue = new LinkedBlockingQueue<>();
-
     private static final Integer[] BAUD_RATES = {300, 1200, 2400, 4800, 9600, 14400, 19200, 28800, 38400, 57600, 115200};
     private int currentBaudRate = BAUD_RATES[BAUD_RATES.length - 1];
-
-    private final ExecutorService serialIoExecutor = Executors.newSingleThreadExecutor();
-    private final ScheduledExecutorService msgQueueProcessorExecutor = Executors.newScheduledThreadPool(1);
-    private final ScheduledExecutorService canMessagePrinterExecutor = Executors.newScheduledThreadPool(1);
+    private LatencyProfile currentLatencyProfile = LatencyProfile.BALANCED;
 
     private SimpleDateFormat dateFormat = new SimpleDateFormat("dd-M-yyyy hh:mm:ss");
-    private CanMessageBuilder canMessageBuilder;
+    private CanPipeline canPipeline;
+
+    private CaptureSession mCaptureSession;
 
+    /**
+     * Writes to the first port. Null while the session is not started.
+     */
     private SerialInputOutputManager mSerialIoManager;
-    private final SerialInputOutputManager.Listener mListener =
-            new SerialInputOutputManager.Listener() {
+    private final CaptureSession.Listener mListener =
+            new CaptureSession.Listener() {
 
                 @Override
-                public void onRunError(Exception e) {
-                    Log.d(TAG, "Runner stopped.");
+                public void onRunError(int source, Exception e) {
+                    Log.d(TAG, "Runner " + source + " stopped.");
                 }
 
                 @Override
-                public void onNewData(final byte[] data) {
-                    updateReceivedData(data);
+                public void onNewData(int source, ByteBuffer data, long receivedNanos) {
+                    updateReceivedData(source, data, receivedNanos);
                 }
             };
     private boolean scanStarted;
@@ -137,6 +141,7 @@ public class SerialConsoleActivity extends Activity {
         mDumpTextView = (TextView) findViewById(R.id.consoleText);
         mScrollView = (ScrollView) findViewById(R.id.canDataScroller);
         mSpinner = (Spinner) findViewById(R.id.baudRateSpinner);
+        mLatencyProfileSpinner = (Spinner) findViewById(R.id.latencyProfileSpinner);
         mStartButton = (Button) findViewById(R.id.startButton);
         mClearButton = (Button) findViewById(R.id.clearButton);
         mRawCanButton = (Button) findViewById(R.id.rawCanButton);
@@ -145,9 +150,11 @@ public class SerialConsoleActivity extends Activity {
         mCanSyncButton = (Button) findViewById(R.id.canSync);
         mCanMsgEditView = (EditText) findViewById(R.id.canMsg);
 
-        mTitleTextView.setText("Serial device: " + sPort.getClass().getSimpleName());
+        mCaptureSession = sPorts.isEmpty() ? null : new CaptureSession(sPorts);
+        mTitleTextView.setText("Serial device: " + getDeviceNames());
 
         initBaudRateSpinner();
+        initLatencyProfileSpinner();
         initStartButton();
         initClearButton();
         initRawCanButton();
@@ -155,9 +162,13 @@ public class SerialConsoleActivity extends Activity {
         initSendCanMsgButton();
         initSendCanSyncButton();
 
-        canMessageBuilder = new CanMessageBuilder(rawMsgQueue, canMsgQueue);
-        msgQueueProcessorExecutor.scheduleWithFixedDelay(canMessageBuilder, 0, 1, TimeUnit.MILLISECONDS);
-        canMessagePrinterExecutor.scheduleWithFixedDelay(new CanMessageManager(canMsgQueue), 0, 250, TimeUnit.MILLISECONDS);
+        canPipeline = new CanPipeline(Math.max(sPorts.size(), 1), CanPipeline.DEFAULT_RAW_BYTE_RING_CAPACITY,
+                CanPipeline.DEFAULT_CAN_MSG_QUEUE_CAPACITY, CanPipeline.DEFAULT_REORDER_WINDOW_NANOS);
+        // Recover from lost bytes instead of showing misaligned messages until the next sync
+        for (int i = 0; i < canPipeline.getSourceCount(); i++) {
+            canPipeline.setResyncEnabled(i, true);
+        }
+        canPipeline.start();
 
         DataHolder.getInstance().setSerialConsoleActivity(this);
     }
@@ -185,12 +196,19 @@ public class SerialConsoleActivity extends Activity {
             @Override
             public void onClick(View v) {
                 mClearButton.callOnClick();
-                canMessageBuilder.reset();
-                canMessageBuilder.setWaitingForSyncAck(true);
+                canPipeline.reset();
+                canPipeline.setWaitingForSyncAck(true);
                 if (mSerialIoManager == null) {
                     mStartButton.callOnClick();
                 }
-                mSerialIoManager.writeAsync(HexDump.hexStringToByteArray(CanConstants.CAN_SYNC));
+                if (mSerialIoManager == null) {
+                    return;
+                }
+                // Every adapter has to be synced
+                final byte[] sync = HexDump.hexStringToByteArray(CanConstants.CAN_SYNC);
+                for (int i = 0; i < mCaptureSession.getSourceCount(); i++) {
+                    mCaptureSession.getIoManager(i).writeAsync(sync, TransmitQueue.PRIORITY_HIGH);
+                }
                 Toast.makeText(getBaseContext(), "Sync successful", Toast.LENGTH_SHORT).show();
             }
         });
@@ -206,7 +224,7 @@ public class SerialConsoleActivity extends Activity {
                         mStartButton.callOnClick();
                     }
                     // Call CanMessageTester.sendMessage
-                    CanMessageTemplate allMessagesTemplate = CanMessageTemplateDB.getTemplate(CanConstants.ALL_MESSAGES);
+                    CanMessageTemplate allMessagesTemplate = CanMessageTemplateDB.getAllMessagesTemplate();
                     if(allMessagesTemplate != null){
                         allMessagesTemplate.getBroker().sendMessage(new CanMessage(HexDump.hexStringToByteArray(canMsg)));
                     }
@@ -227,7 +245,7 @@ public class SerialConsoleActivity extends Activity {
             public void onClick(View v) {
                 String data = mDumpTextView.getText().toString();
                 if (data != null && !data.isEmpty()) {
-                    String shareBody = "Device: " + sPort.getClass().getSimpleName() + "\n\n" + "Data\n" + data;
+                    String shareBody = "Device: " + getDeviceNames() + "\n\n" + "Data\n" + data;
                     Intent sharingIntent = new Intent(Intent.ACTION_SEND);
                     sharingIntent.setType("text/plain");
                     sharingIntent.putExtra(Intent.EXTRA_SUBJECT, "Vega CAN data [" + dateFormat.format(new Date()) + "]");
@@ -265,6 +283,7 @@ public class SerialConsoleActivity extends Activity {
                     mStartButton.setText(getResources().getString(R.string.start));
                     mStartButton.setBackgroundColor(Color.rgb(0xa4, 0xc6, 0x39));
                     closePort();
+                    showResyncCounters();
                     Toast.makeText(getBaseContext(), "Scan stopped", Toast.LENGTH_SHORT).show();
                 }
             }
@@ -305,6 +324,98 @@ public class SerialConsoleActivity extends Activity {
         });
     }
 
+    private void initLatencyProfileSpinner() {
+        final LatencyProfile[] profiles = LatencyProfile.values();
+        ArrayAdapter<LatencyProfile> adapter =
+                new ArrayAdapter<>(this, android.R.layout.simple_spinner_dropdown_item, profiles);
+        mLatencyProfileSpinner.setAdapter(adapter);
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        try {
+            currentLatencyProfile = LatencyProfile.valueOf(
+                    preferences.getString(LATENCY_PROFILE_KEY, LatencyProfile.BALANCED.name()));
+        } catch (IllegalArgumentException e) {
+            currentLatencyProfile = LatencyProfile.BALANCED;
+        }
+        mLatencyProfileSpinner.setSelection(currentLatencyProfile.ordinal());
+        mLatencyProfileSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                LatencyProfile profile = profiles[position];
+                if (profile == currentLatencyProfile) {
+                    return;
+                }
+                currentLatencyProfile = profile;
+                preferences.edit().putString(LATENCY_PROFILE_KEY, profile.name()).apply();
+                applyLatencyProfile();
+                Toast.makeText(getBaseContext(), "Latency profile set to " + profile, Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+                // Nothing to do
+            }
+        });
+    }
+
+    /**
+     * Applies the current latency profile to the I/O managers, and to the
+     * ports which are open FTDI ports
+     */
+    private void applyLatencyProfile() {
+        if (mCaptureSession == null) {
+            return;
+        }
+        mCaptureSession.setIoMode(currentLatencyProfile.getIoMode());
+        if (!mCaptureSession.isOpen()) {
+            return;
+        }
+        for (int i = 0; i < mCaptureSession.getSourceCount(); i++) {
+            final UsbSerialPort port = mCaptureSession.getPort(i);
+            if (!(port instanceof FtdiSerialDriver.FtdiSerialPort)) {
+                continue;
+            }
+            FtdiSerialDriver.FtdiSerialPort ftdiPort = (FtdiSerialDriver.FtdiSerialPort) port;
+            try {
+                ftdiPort.setLatencyTimer(currentLatencyProfile.getFtdiLatencyTimerMillis());
+                ftdiPort.setTransferSize(currentLatencyProfile.getFtdiTransferSize());
+                Log.i(TAG, "FTDI latency timer " + ftdiPort.getLatencyTimer() + " ms, transfer size "
+                        + ftdiPort.getTransferSize());
+            } catch (IOException e) {
+                Log.w(TAG, "Error setting FTDI latency: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Shows how often the framer of each port has lost the message boundary,
+     * and how many bytes it has discarded to find it again
+     */
+    private void showResyncCounters() {
+        final StringBuilder counters = new StringBuilder();
+        for (int i = 0; i < canPipeline.getSourceCount(); i++) {
+            final long resyncCount = canPipeline.getResyncCount(i);
+            final long discardedByteCount = canPipeline.getDiscardedByteCount(i);
+            Log.i(TAG, "Source " + i + ": " + resyncCount + " resyncs, " + discardedByteCount + " bytes discarded");
+            counters.append("\n").append(getSourcePrefix(i)).append("Resyncs: ").append(resyncCount)
+                    .append(", bytes discarded: ").append(discardedByteCount);
+        }
+        mTitleTextView.setText("Serial device: " + getDeviceNames() + counters);
+    }
+
+    /**
+     * @return the class names of the ports, in source order
+     */
+    private String getDeviceNames() {
+        final StringBuilder names = new StringBuilder();
+        for (UsbSerialPort port : sPorts) {
+            if (names.length() > 0) {
+                names.append(", ");
+            }
+            names.append(port.getClass().getSimpleName());
+        }
+        return names.length() == 0 ? "none" : names.toString();
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
@@ -312,61 +423,76 @@ public class SerialConsoleActivity extends Activity {
         finish();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mCaptureSession != null) {
+            mCaptureSession.shutdown();
+        }
+        canPipeline.stop();
+    }
+
     private void closePort() {
-        stopIoManager();
-        if (sPort != null) {
-            try {
-                sPort.close();
-            } catch (IOException e) {
-                // Ignore.
-            }
-//            sPort = null;
+        mSerialIoManager = null;
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
         }
     }
 
     private void openPort() {
-        if (sPort == null) {
+        if (mCaptureSession == null) {
             mTitleTextView.setText("No serial device.");
             return;
         }
 
         final UsbManager usbManager = (UsbManager) getSystemService(Context.USB_SERVICE);
-        UsbDeviceConnection connection = usbManager.openDevice(sPort.getDriver().getDevice());
-        if (connection == null) {
-            mTitleTextView.setText("Opening device failed");
-        } else {
-            try {
-                sPort.open(connection);
-                sPort.setParameters(currentBaudRate, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
-                mTitleTextView.setText("Serial device: " + sPort.getClass().getSimpleName());
-                onDeviceStateChange();
-            } catch (IOException e) {
-                Log.e(TAG, "Error setting up device: " + e.getMessage(), e);
-                mTitleTextView.setText("Error opening device: " + e.getMessage());
-                try {
-                    sPort.close();
-                } catch (IOException e2) {
-                    // Ignore.
-                }
-//                sPort = null;
+        try {
+            mCaptureSession.open(usbManager, currentBaudRate);
+            // Receive times are spread over the bytes of each read at the line rate
+            for (int i = 0; i < mCaptureSession.getSourceCount(); i++) {
+                canPipeline.setBaudRate(i, currentBaudRate);
             }
+            WallClock.resync();
+            mTitleTextView.setText("Serial device: " + getDeviceNames());
+            applyLatencyProfile();
+            onDeviceStateChange();
+        } catch (IOException e) {
+            Log.e(TAG, "Error setting up device: " + e.getMessage(), e);
+            mTitleTextView.setText("Error opening device: " + e.getMessage());
         }
     }
 
     private void stopIoManager() {
-        if (mSerialIoManager != null) {
-            Log.i(TAG, "Stopping io manager ..");
-            mSerialIoManager.stop();
+        if (mCaptureSession != null && mCaptureSession.isStarted()) {
+            Log.i(TAG, "Stopping io managers ..");
             mSerialIoManager = null;
+            mCaptureSession.stop();
         }
     }
 
     private void startIoManager() {
-        if (sPort != null) {
-            Log.i(TAG, "Starting io manager ..");
-            mSerialIoManager = new SerialInputOutputManager(sPort, mListener);
-            CanMessageTemplateDB.setSerialIoManager(mSerialIoManager);
-            serialIoExecutor.submit(mSerialIoManager);
+        if (mCaptureSession != null) {
+            Log.i(TAG, "Starting io managers ..");
+            mCaptureSession.start(mListener, currentLatencyProfile.getIoMode());
+            final SerialInputOutputManager serialIoManager = mCaptureSession.getIoManager(0);
+            mSerialIoManager = serialIoManager;
+            CanMessageTemplateDB.setMessageWriter(new CanMessageWriter() {
+                @Override
+                public boolean writeAsync(byte[] data, TransmitPriority priority) {
+                    return serialIoManager.writeAsync(data, toQueuePriority(priority));
+                }
+            });
+        }
+    }
+
+    private static int toQueuePriority(TransmitPriority priority) {
+        switch (priority) {
+            case HIGH:
+                return TransmitQueue.PRIORITY_HIGH;
+            case LOW:
+                return TransmitQueue.PRIORITY_LOW;
+            default:
+                return TransmitQueue.PRIORITY_NORMAL;
         }
     }
 
@@ -375,19 +501,26 @@ public class SerialConsoleActivity extends Activity {
         startIoManager();
     }
 
-    private void updateReceivedData(byte[] data) {
+    private void updateReceivedData(int source, ByteBuffer data, long receivedNanos) {
         if (isCanView) {
-            rawMsgQueue.add(data);
+            // The pipeline copies the data out of the read buffer
+            canPipeline.onNewData(source, data, receivedNanos);
         } else {
-            printHexDump(data);
+            final byte[] copy = new byte[data.remaining()];
+            data.get(copy);
+            printHexDump(source, copy);
         }
     }
 
     public void printHexDump(final byte[] data) {
+        printHexDump(0, data);
+    }
+
+    private void printHexDump(final int source, final byte[] data) {
         this.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                final String message = HexDump.toHexString(data);
+                final String message = getSourcePrefix(source) + HexDump.toHexString(data);
                 mDumpTextView.append(message + "\n");
                 mScrollView.smoothScrollTo(0, mDumpTextView.getBottom());
             }
@@ -395,17 +528,26 @@ public class SerialConsoleActivity extends Activity {
     }
 
     public void printCanMessage(final CanMessage canMessage) {
+        // Format the message on the calling thread, since the message is recycled once it has been dispatched
+        final String message = getSourcePrefix(canMessage.getSource()) +
+                HexDump.toHexString(canMessage.getMessageId()) + "    " +
+                HexDump.toHexString(canMessage.getData());
         this.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                final String message = HexDump.toHexString(canMessage.getMessageId()) + "    " +
-                        HexDump.toHexString(canMessage.getData());
                 mDumpTextView.append(message + "\n");
                 mScrollView.smoothScrollTo(0, mDumpTextView.getBottom());
             }
         });
     }
 
+    /**
+     * @return the tag of the port data came from, if there is more than one port
+     */
+    private String getSourcePrefix(int source) {
+        return sPorts.size() > 1 ? "[" + source + "] " : "";
+    }
+
 //    public void printCanMessage(final CanMessage canMessage) {
         /*this.runOnUiThread(new Runnable() {
             @Override
@@ -449,7 +591,18 @@ public class SerialConsoleActivity extends Activity {
      * @param port
      */
     static void show(Context context, UsbSerialPort port) {
-        sPort = port;
+        show(context, Collections.singletonList(port));
+    }
+
+    /**
+     * Starts the activity, capturing from all the supplied driver instances
+     * at the same time.
+     *
+     * @param context
+     * @param ports the ports, in source order
+     */
+    static void show(Context context, List<UsbSerialPort> ports) {
+        sPorts = new ArrayList<UsbSerialPort>(ports);
         final Intent intent = new Intent(context, SerialConsoleActivity.class);
         intent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_NO_HISTORY);
         context.startActivity(intent);
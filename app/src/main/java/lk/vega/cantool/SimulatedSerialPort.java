@@ -0,0 +1,232 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import lk.vega.cantool.can.sim.SimulatedCanDevice;
+import lk.vega.usbserial.driver.UsbReadPipeline;
+import lk.vega.usbserial.driver.UsbSerialDriver;
+import lk.vega.usbserial.driver.UsbSerialPort;
+
+/**
+ * A {@link UsbSerialPort} backed by a {@link SimulatedCanDevice}, for running the
+ * {@link lk.vega.usbserial.util.SerialInputOutputManager} and the CAN pipeline without a device. The traffic,
+ * pacing and sync handshake are set up on the device; the baud rate set with
+ * {@link #setParameters(int, int, int, int)} paces the traffic when the device has no byte rate.
+ * <p/>
+ * Load tests which do not need the Android I/O manager drive the device directly on a plain JVM, see the
+ * simulation harness of the can-bench module.
+ */
+public class SimulatedSerialPort implements UsbSerialPort {
+
+    private final SimulatedCanDevice mDevice;
+    private final SimulatedDriver mDriver = new SimulatedDriver();
+
+    private boolean mDtr;
+    private boolean mRts;
+
+    /** Guards the modem status. */
+    private final Object mModemStatusLock = new Object();
+    private int mModemStatus;
+    private ModemStatusListener mModemStatusListener;
+
+    public SimulatedSerialPort(SimulatedCanDevice device) {
+        mDevice = device;
+    }
+
+    public SimulatedCanDevice getDevice() {
+        return mDevice;
+    }
+
+    @Override
+    public UsbSerialDriver getDriver() {
+        return mDriver;
+    }
+
+    @Override
+    public int getPortNumber() {
+        return 0;
+    }
+
+    @Override
+    public String getSerial() {
+        return null;
+    }
+
+    /**
+     * @param connection ignored, may be null
+     */
+    @Override
+    public void open(UsbDeviceConnection connection) throws IOException {
+        mDevice.open();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDevice.close();
+    }
+
+    @Override
+    public int read(byte[] dest, int timeoutMillis) throws IOException {
+        return mDevice.read(dest, timeoutMillis);
+    }
+
+    @Override
+    public int write(byte[] src, int timeoutMillis) throws IOException {
+        return write(src, 0, src.length, timeoutMillis);
+    }
+
+    @Override
+    public int write(byte[] src, int offset, int length, int timeoutMillis) throws IOException {
+        return mDevice.write(src, offset, length);
+    }
+
+    /**
+     * @return the packet size of a full speed USB bulk endpoint
+     */
+    @Override
+    public int getWritePacketSize() {
+        return 64;
+    }
+
+    /**
+     * @return the packet size of a full speed USB bulk endpoint
+     */
+    @Override
+    public int getReadPacketSize() {
+        return 64;
+    }
+
+    @Override
+    public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+        mDevice.setBaudRate(baudRate);
+    }
+
+    /**
+     * Changes the modem status lines of the simulated device, notifying the {@link ModemStatusListener}
+     *
+     * @param modemStatus the {@link #MODEM_STATUS_CD} and following bits which are set
+     */
+    public void setModemStatus(int modemStatus) {
+        final ModemStatusListener listener;
+        final int changed;
+        synchronized (mModemStatusLock) {
+            changed = modemStatus ^ mModemStatus;
+            mModemStatus = modemStatus;
+            listener = mModemStatusListener;
+        }
+        if (listener != null && changed != 0) {
+            listener.onModemStatusChanged(this, modemStatus, changed);
+        }
+    }
+
+    @Override
+    public void setModemStatusListener(ModemStatusListener listener) {
+        synchronized (mModemStatusLock) {
+            mModemStatusListener = listener;
+        }
+    }
+
+    @Override
+    public boolean getCD() throws IOException {
+        return testModemStatus(MODEM_STATUS_CD);
+    }
+
+    @Override
+    public boolean getCTS() throws IOException {
+        return testModemStatus(MODEM_STATUS_CTS);
+    }
+
+    @Override
+    public boolean getDSR() throws IOException {
+        return testModemStatus(MODEM_STATUS_DSR);
+    }
+
+    @Override
+    public boolean getDTR() throws IOException {
+        return mDtr;
+    }
+
+    @Override
+    public void setDTR(boolean value) throws IOException {
+        mDtr = value;
+    }
+
+    @Override
+    public boolean getRI() throws IOException {
+        return testModemStatus(MODEM_STATUS_RI);
+    }
+
+    private boolean testModemStatus(int bit) {
+        synchronized (mModemStatusLock) {
+            return (mModemStatus & bit) != 0;
+        }
+    }
+
+    @Override
+    public boolean getRTS() throws IOException {
+        return mRts;
+    }
+
+    @Override
+    public void setRTS(boolean value) throws IOException {
+        mRts = value;
+    }
+
+    @Override
+    public boolean purgeHwBuffers(boolean flushReadBuffers, boolean flushWriteBuffers) throws IOException {
+        if (flushReadBuffers) {
+            mDevice.purgeInjected();
+        }
+        return true;
+    }
+
+    /**
+     * @return null, the simulated port does not support asynchronous reads
+     */
+    @Override
+    public UsbReadPipeline createReadPipeline(int requestCount) throws IOException {
+        if (!mDevice.isOpen()) {
+            throw new IOException("Port not open");
+        }
+        return null;
+    }
+
+    private class SimulatedDriver implements UsbSerialDriver {
+
+        @Override
+        public UsbDevice getDevice() {
+            return null;
+        }
+
+        @Override
+        public List<UsbSerialPort> getPorts() {
+            return Collections.<UsbSerialPort>singletonList(SimulatedSerialPort.this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<" + getClass().getSimpleName() + " device=" + mDevice + ">";
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.bench;
+
+import java.util.Random;
+
+import lk.vega.cantool.can.CanMessage;
+
+/**
+ * Generates the CAN traffic used by the benchmarks
+ */
+final class BenchFrames {
+
+    /**
+     * Number of frames handled by each benchmark invocation. Benchmarks report their score per frame by declaring
+     * this as their operations per invocation.
+     */
+    static final int FRAMES = 1024;
+
+    /**
+     * Largest payload of a full speed USB bulk packet after the FTDI modem status bytes
+     */
+    static final int MAX_USB_CHUNK = 62;
+
+    private static final long SEED = 0x5EEDL;
+
+    private BenchFrames() {
+    }
+
+    /**
+     * @return {@link #FRAMES} raw frames back to back, with standard IDs spread over the whole ID range
+     */
+    static byte[] stream() {
+        Random random = new Random(SEED);
+        byte[] stream = new byte[FRAMES * CanMessage.CAN_MSG_SIZE_BYTES];
+        for (int i = 0; i < FRAMES; i++) {
+            int offset = i * CanMessage.CAN_MSG_SIZE_BYTES;
+            int id = random.nextInt(1 << 11);
+            stream[offset] = (byte) (id >>> 8);
+            stream[offset + 1] = (byte) id;
+            for (int j = CanMessage.CAN_MSG_ID_SIZE_BYTES; j < CanMessage.CAN_MSG_SIZE_BYTES; j++) {
+                stream[offset + j] = (byte) random.nextInt(256);
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * @return the frames of {@link #stream()} as messages
+     */
+    static CanMessage[] messages() {
+        byte[] stream = stream();
+        CanMessage[] messages = new CanMessage[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] raw = new byte[CanMessage.CAN_MSG_SIZE_BYTES];
+            System.arraycopy(stream, i * CanMessage.CAN_MSG_SIZE_BYTES, raw, 0, raw.length);
+            messages[i] = new CanMessage(raw);
+        }
+        return messages;
+    }
+
+    /**
+     * Splits the stream into chunks, as they would be returned by the USB reads
+     *
+     * @param chunking a chunk size in bytes, or "mixed" for random sizes of 1 to {@link #MAX_USB_CHUNK} bytes
+     */
+    static byte[][] split(byte[] stream, String chunking) {
+        Random random = new Random(SEED);
+        int fixedSize = "mixed".equals(chunking) ? 0 : Integer.parseInt(chunking);
+        int count = 0;
+        int[] sizes = new int[stream.length];
+        for (int offset = 0; offset < stream.length; count++) {
+            int size = fixedSize > 0 ? fixedSize : 1 + random.nextInt(MAX_USB_CHUNK);
+            sizes[count] = Math.min(size, stream.length - offset);
+            offset += sizes[count];
+        }
+        byte[][] chunks = new byte[count][];
+        for (int i = 0, offset = 0; i < count; i++) {
+            chunks[i] = new byte[sizes[i]];
+            System.arraycopy(stream, offset, chunks[i], 0, sizes[i]);
+            offset += sizes[i];
+        }
+        return chunks;
+    }
+}
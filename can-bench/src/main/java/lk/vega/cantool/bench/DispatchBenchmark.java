@@ -0,0 +1,96 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import lk.vega.cantool.can.CanMessage;
+import lk.vega.cantool.can.CanMessageManager;
+import lk.vega.cantool.can.CanMessageMerger;
+import lk.vega.cantool.can.CanPipeline;
+import lk.vega.cantool.can.CanMessageTemplateDB;
+import lk.vega.cantool.can.SpscRingQueue;
+import lk.vega.cantool.can.messages.CanMessageBroker;
+import lk.vega.cantool.util.HexDump;
+
+/**
+ * Measures the dispatch stage of a single source pipeline: a {@link CanMessageMerger} taking each message off the
+ * queue, and its {@link CanMessageManager} finding the broker of the message. The traffic
+ * uses IDs from the whole standard ID range, and templates are registered for the first {@link #registeredIds}
+ * of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DispatchBenchmark {
+
+    @Param({"1", "100", "2048"})
+    public int registeredIds;
+
+    private CanMessage[] messages;
+    private SpscRingQueue<CanMessage> canMsgQueue;
+    private CanMessageMerger merger;
+
+    @Setup
+    public void setup() throws UnsupportedEncodingException {
+        StringBuilder xml = new StringBuilder("<messages>");
+        for (int id = 0; id < registeredIds; id++) {
+            xml.append("<").append(CanMessageTemplateDB.HANDLER)
+                    .append(" name=\"bench\" description=\"bench\" id=\"").append(HexDump.toHexString((short) id))
+                    .append("\" class=\"").append(CountingBroker.class.getName()).append("\"/>");
+        }
+        xml.append("</messages>");
+        CanMessageTemplateDB.parse(new ByteArrayInputStream(xml.toString().getBytes("UTF-8")));
+        messages = BenchFrames.messages();
+        canMsgQueue = new SpscRingQueue<>(BenchFrames.FRAMES);
+        merger = new CanMessageMerger(Collections.singletonList(canMsgQueue), new CanMessageManager(),
+                CanPipeline.DEFAULT_REORDER_WINDOW_NANOS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchFrames.FRAMES)
+    public long dispatch() {
+        // The messages are not pooled, so recycling them after dispatch does nothing
+        for (CanMessage canMessage : messages) {
+            canMsgQueue.offer(canMessage);
+        }
+        merger.run();
+        return CountingBroker.received;
+    }
+
+    public static class CountingBroker extends CanMessageBroker {
+        static long received;
+
+        @Override
+        public void messageReceived(CanMessage canMessage) {
+            received += canMessage.getPayload();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import lk.vega.cantool.can.CanMessage;
+import lk.vega.cantool.can.CanMessageBuilder;
+import lk.vega.cantool.can.CanPipeline;
+import lk.vega.cantool.can.SpscByteRing;
+import lk.vega.cantool.can.SpscRingQueue;
+
+/**
+ * Measures {@link CanMessageBuilder} turning USB read chunks into CAN messages. The builder is run on the benchmark
+ * thread, so the score does not include the hand off between the pipeline stages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FramingBenchmark {
+
+    @Param({"1", "9", "62", "512", "mixed"})
+    public String chunking;
+
+    private byte[][] chunks;
+    private SpscByteRing rawByteRing;
+    private SpscRingQueue<CanMessage> canMsgQueue;
+    private CanMessageBuilder builder;
+
+    @Setup
+    public void setup() {
+        chunks = BenchFrames.split(BenchFrames.stream(), chunking);
+        rawByteRing = new SpscByteRing(CanPipeline.DEFAULT_RAW_BYTE_RING_CAPACITY);
+        canMsgQueue = new SpscRingQueue<>(CanPipeline.DEFAULT_CAN_MSG_QUEUE_CAPACITY);
+        builder = new CanMessageBuilder(rawByteRing, canMsgQueue);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchFrames.FRAMES)
+    public void frame(Blackhole blackhole) {
+        // As in the pipeline, the builder runs for each chunk received
+        for (byte[] chunk : chunks) {
+            rawByteRing.write(chunk, 0, chunk.length);
+            builder.run();
+        }
+        drain(blackhole);
+    }
+
+    private void drain(Blackhole blackhole) {
+        CanMessage canMessage = canMsgQueue.poll();
+        while (canMessage != null) {
+            blackhole.consume(canMessage.getId());
+            canMessage.recycle();
+            canMessage = canMsgQueue.poll();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import lk.vega.cantool.can.CanMessage;
+import lk.vega.cantool.util.HexDump;
+
+/**
+ * Measures the hex formatting of received frames, as done by the console views
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HexDumpBenchmark {
+
+    private byte[] stream;
+    private CanMessage[] messages;
+
+    @Setup
+    public void setup() {
+        stream = BenchFrames.stream();
+        messages = BenchFrames.messages();
+    }
+
+    /**
+     * The raw frame, as printed by the hex dump view
+     */
+    @Benchmark
+    @OperationsPerInvocation(BenchFrames.FRAMES)
+    public void rawFrame(Blackhole blackhole) {
+        for (int offset = 0; offset < stream.length; offset += CanMessage.CAN_MSG_SIZE_BYTES) {
+            blackhole.consume(HexDump.toHexString(stream, offset, CanMessage.CAN_MSG_SIZE_BYTES));
+        }
+    }
+
+    /**
+     * The ID and data of a message, as printed by the CAN message view
+     */
+    @Benchmark
+    @OperationsPerInvocation(BenchFrames.FRAMES)
+    public void canMessage(Blackhole blackhole) {
+        for (CanMessage canMessage : messages) {
+            blackhole.consume(HexDump.toHexString(canMessage.getMessageId()) + "    " +
+                    HexDump.toHexString(canMessage.getData()));
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import lk.vega.cantool.can.CanConstants;
+import lk.vega.cantool.can.CanMessage;
+import lk.vega.cantool.can.CanMessageTemplateDB;
+import lk.vega.cantool.can.CanPipeline;
+import lk.vega.cantool.can.messages.CanMessageBroker;
+import lk.vega.cantool.can.sim.SimulatedCanDevice;
+import lk.vega.cantool.util.HexDump;
+
+/**
+ * Runs the CAN pipeline on {@link SimulatedCanDevice}s for a fixed time, and reports its throughput and latency.
+ * Unlike the JMH benchmarks, this runs all the threads of a capture: a reader thread per device which syncs with the
+ * device and hands each read to the pipeline, the framing stages and the dispatch stage. The latency of a message
+ * is the time from the read of its last byte to its dispatch to a broker.
+ * <p/>
+ * Settings are passed as name=value arguments:
+ * <ul>
+ * <li>sources: the number of devices, default 1</li>
+ * <li>seconds: how long the devices send traffic, default 10</li>
+ * <li>baud: the baud rate of each device, or 0 to send as fast as the reader reads, default 115200</li>
+ * <li>chunk: the largest number of bytes returned by a read, default {@link SimulatedCanDevice#DEFAULT_CHUNK_SIZE}</li>
+ * <li>jitter: the largest random delay added to each read in milliseconds, default 0</li>
+ * </ul>
+ */
+public final class SimulationHarness {
+
+    /**
+     * Latencies of up to this many microseconds are counted exactly, and longer ones in the last bucket
+     */
+    private static final int MAX_LATENCY_MICROS = 1000000;
+
+    private static final int READ_TIMEOUT_MILLIS = 200;
+    private static final long SEED = 0x5EEDL;
+
+    private SimulationHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = parseArgs(args);
+        final int sourceCount = Integer.parseInt(get(settings, "sources", "1"));
+        final int seconds = Integer.parseInt(get(settings, "seconds", "10"));
+        final int baudRate = Integer.parseInt(get(settings, "baud", "115200"));
+        final int chunkSize = Integer.parseInt(get(settings, "chunk",
+                String.valueOf(SimulatedCanDevice.DEFAULT_CHUNK_SIZE)));
+        final int jitterMillis = Integer.parseInt(get(settings, "jitter", "0"));
+
+        CanMessageTemplateDB.parse(new ByteArrayInputStream(("<messages><" + CanMessageTemplateDB.HANDLER
+                + " name=\"latency\" description=\"latency\" id=\"" + CanConstants.ALL_MESSAGES
+                + "\" class=\"" + LatencyBroker.class.getName() + "\"/></messages>").getBytes("UTF-8")));
+
+        final CanPipeline pipeline = new CanPipeline(sourceCount, CanPipeline.DEFAULT_RAW_BYTE_RING_CAPACITY,
+                CanPipeline.DEFAULT_CAN_MSG_QUEUE_CAPACITY, CanPipeline.DEFAULT_REORDER_WINDOW_NANOS);
+        final byte[] sync = HexDump.hexStringToByteArray(CanConstants.CAN_SYNC);
+        final byte[] syncAck = HexDump.hexStringToByteArray(CanConstants.CAN_SYNC_ACK);
+        final SimulatedCanDevice.RandomCanTraffic[] traffic = new SimulatedCanDevice.RandomCanTraffic[sourceCount];
+        final SimulatedCanDevice[] devices = new SimulatedCanDevice[sourceCount];
+        for (int i = 0; i < sourceCount; i++) {
+            traffic[i] = new SimulatedCanDevice.RandomCanTraffic(SEED + i, null);
+            devices[i] = new SimulatedCanDevice(traffic[i]);
+            devices[i].setBaudRate(baudRate);
+            devices[i].setChunkSize(chunkSize);
+            devices[i].setJitter(jitterMillis, SEED + i);
+            devices[i].setSyncHandshake(sync, syncAck, true);
+            devices[i].open();
+            pipeline.setBaudRate(i, baudRate);
+            pipeline.setResyncEnabled(i, true);
+        }
+        pipeline.start();
+        pipeline.setWaitingForSyncAck(true);
+
+        final long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final long[] bytesRead = new long[sourceCount];
+        final IOException[] errors = new IOException[sourceCount];
+        Thread[] readers = new Thread[sourceCount];
+        for (int i = 0; i < sourceCount; i++) {
+            final int source = i;
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[chunkSize];
+                    ByteBuffer data = ByteBuffer.wrap(buffer);
+                    try {
+                        devices[source].write(sync, 0, sync.length);
+                        while (System.nanoTime() < endNanos) {
+                            int length = devices[source].read(buffer, READ_TIMEOUT_MILLIS);
+                            if (length > 0) {
+                                long receivedNanos = System.nanoTime();
+                                data.clear();
+                                data.limit(length);
+                                pipeline.onNewData(source, data, receivedNanos);
+                                bytesRead[source] += length;
+                            }
+                        }
+                    } catch (IOException e) {
+                        errors[source] = e;
+                    }
+                }
+            }, "sim-reader-" + i);
+            readers[i].start();
+        }
+        long startNanos = System.nanoTime();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        drain(pipeline);
+        pipeline.stop();
+
+        long framesSent = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < sourceCount; i++) {
+            if (errors[i] != null) {
+                throw errors[i];
+            }
+            devices[i].close();
+            framesSent += traffic[i].getFrameCount();
+            totalBytes += bytesRead[i];
+        }
+        report(pipeline, sourceCount, baudRate, chunkSize, jitterMillis, elapsedNanos, framesSent, totalBytes);
+    }
+
+    /**
+     * Waits for the data which has been read to be framed and dispatched, including the messages held back by
+     * the merger
+     */
+    private static void drain(CanPipeline pipeline) throws InterruptedException {
+        for (int i = 0; i < pipeline.getSourceCount(); i++) {
+            while (!pipeline.getRawByteRing(i).isEmpty() || !pipeline.getCanMsgQueue(i).isEmpty()) {
+                Thread.sleep(1);
+            }
+        }
+        TimeUnit.NANOSECONDS.sleep(2 * CanPipeline.DEFAULT_REORDER_WINDOW_NANOS);
+    }
+
+    private static void report(CanPipeline pipeline, int sourceCount, int baudRate, int chunkSize, int jitterMillis,
+                               long elapsedNanos, long framesSent, long totalBytes) {
+        double seconds = elapsedNanos / 1e9;
+        long dispatched = LatencyBroker.count;
+        System.out.printf(Locale.US, "sources=%d baud=%d chunk=%d jitter=%dms time=%.1fs%n",
+                sourceCount, baudRate, chunkSize, jitterMillis, seconds);
+        System.out.printf(Locale.US, "throughput: %.0f msgs/s, %.0f bytes/s, %d of %d frames dispatched%n",
+                dispatched / seconds, totalBytes / seconds, dispatched, framesSent);
+        System.out.printf(Locale.US, "latency us: p50=%d p90=%d p99=%d p99.9=%d max=%d%n",
+                LatencyBroker.percentile(0.5), LatencyBroker.percentile(0.9), LatencyBroker.percentile(0.99),
+                LatencyBroker.percentile(0.999), LatencyBroker.maxMicros);
+        for (int i = 0; i < sourceCount; i++) {
+            System.out.printf(Locale.US,
+                    "source %d: raw bytes dropped=%d, messages rejected=%d, resyncs=%d, bytes discarded=%d%n", i,
+                    pipeline.getRawByteRing(i).getDroppedCount(), pipeline.getCanMsgQueue(i).getRejectedCount(),
+                    pipeline.getResyncCount(i), pipeline.getDiscardedByteCount(i));
+        }
+        System.out.printf(Locale.US, "messages dispatched late: %d%n", pipeline.getCanMessageMerger().getLateCount());
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> settings = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            settings.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return settings;
+    }
+
+    private static String get(Map<String, String> settings, String name, String defaultValue) {
+        String value = settings.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Counts the dispatched messages in a histogram of their latencies. Only used by the dispatch thread while the
+     * pipeline runs, and read once it has stopped.
+     */
+    public static class LatencyBroker extends CanMessageBroker {
+        static final int[] histogram = new int[MAX_LATENCY_MICROS + 1];
+        static long count;
+        static long maxMicros;
+
+        @Override
+        public void messageReceived(CanMessage canMessage) {
+            long micros = (System.nanoTime() - canMessage.getTimestampNanos()) / 1000;
+            histogram[(int) Math.max(0, Math.min(micros, MAX_LATENCY_MICROS))]++;
+            maxMicros = Math.max(maxMicros, micros);
+            count++;
+        }
+
+        /**
+         * @return the latency in microseconds which the given fraction of the messages did not exceed
+         */
+        static long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int micros = 0; micros < histogram.length; micros++) {
+                seen += histogram[micros];
+                if (seen >= rank && seen > 0) {
+                    return micros;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens the configuration files of the CAN pipeline, such as the CAN message template DB. This is implemented by the
+ * host application, for example on top of the Android assets or the file system.
+ */
+public interface AssetLoader {
+
+    /**
+     * @param name the name of the asset
+     * @return a stream for reading the asset. The caller closes the stream.
+     * @throws IOException if the asset cannot be opened
+     */
+    InputStream open(String name) throws IOException;
+}
@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+/**
+ * Finds a byte sequence in a stream of byte chunks, such as the {@link CanConstants#CAN_SYNC_ACK} in the data read
+ * from the serial device.
+ * <p/>
+ * The pattern is compiled into a Knuth-Morris-Pratt failure table when the matcher is created. The number of
+ * pattern bytes matched so far is kept between calls to {@link #find(byte[], int, int)}, so a sequence which is
+ * split across two chunks is found as well. Searching does not allocate.
+ * <p/>
+ * Not thread safe
+ */
+public class ByteSequenceMatcher {
+
+    private final byte[] pattern;
+
+    /**
+     * failure[i] is the length of the longest proper prefix of pattern[0..i] which is also a suffix of it
+     */
+    private final int[] failure;
+
+    /**
+     * Number of pattern bytes matched at the end of the data searched so far
+     */
+    private int matched;
+
+    public ByteSequenceMatcher(byte[] pattern) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("Pattern must not be empty");
+        }
+        this.pattern = pattern.clone();
+        failure = new int[pattern.length];
+        for (int i = 1, k = 0; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = failure[k - 1];
+            }
+            if (pattern[i] == pattern[k]) {
+                k++;
+            }
+            failure[i] = k;
+        }
+    }
+
+    /**
+     * Searches the next chunk of the stream for the pattern
+     *
+     * @param buf    the array containing the chunk
+     * @param offset the offset of the chunk in <code>buf</code>
+     * @param length the length of the chunk
+     * @return the offset in <code>buf</code> of the first byte after the pattern, or -1 if the pattern does not end
+     * in this chunk. Once the pattern has been found the matcher starts over.
+     */
+    public int find(byte[] buf, int offset, int length) {
+        int k = matched;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            byte b = buf[i];
+            while (k > 0 && b != pattern[k]) {
+                k = failure[k - 1];
+            }
+            if (b == pattern[k]) {
+                k++;
+            }
+            if (k == pattern.length) {
+                matched = 0;
+                return i + 1;
+            }
+        }
+        matched = k;
+        return -1;
+    }
+
+    /**
+     * Forgets a partial match, so that the next search starts over
+     */
+    public void reset() {
+        matched = 0;
+    }
+}
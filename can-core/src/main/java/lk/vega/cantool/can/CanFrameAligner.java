@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import static lk.vega.cantool.can.CanMessage.CAN_MSG_ID_SIZE_BYTES;
+import static lk.vega.cantool.can.CanMessage.CAN_MSG_SIZE_BYTES;
+
+/**
+ * Finds the frame boundary in a stream of raw data after the framer has lost it, for example because a byte was
+ * dropped on the serial link.
+ * <p/>
+ * Each of the {@link CanMessage#CAN_MSG_SIZE_BYTES} possible alignments of the buffered bytes is scored by reading
+ * a window of consecutive frames at that alignment. A frame whose ID has a template in the
+ * {@link CanMessageTemplateDB} scores {@link #KNOWN_ID_SCORE}, and a frame with a plausible 11 bit standard ID
+ * scores {@link #STANDARD_ID_SCORE}. Scoring reads the frame buffer in place and does not allocate.
+ * <p/>
+ * Not thread safe
+ */
+public class CanFrameAligner {
+
+    public static final int DEFAULT_WINDOW_FRAMES = 4;
+
+    public static final int KNOWN_ID_SCORE = 2;
+    public static final int STANDARD_ID_SCORE = 1;
+
+    private final int windowFrames;
+    private int bestScore;
+
+    public CanFrameAligner() {
+        this(DEFAULT_WINDOW_FRAMES);
+    }
+
+    /**
+     * @param windowFrames the number of consecutive frames which are scored for each alignment
+     */
+    public CanFrameAligner(int windowFrames) {
+        if (windowFrames <= 0) {
+            throw new IllegalArgumentException("Window must contain at least one frame: " + windowFrames);
+        }
+        this.windowFrames = windowFrames;
+    }
+
+    /**
+     * @return the number of bytes which must be buffered before an alignment can be found
+     */
+    public int getRequiredBytes() {
+        return windowFrames * CAN_MSG_SIZE_BYTES + CAN_MSG_SIZE_BYTES - 1;
+    }
+
+    /**
+     * @return the score of the alignment returned by the last call to {@link #findAlignment(CanFrameRingBuffer)}
+     */
+    public int getBestScore() {
+        return bestScore;
+    }
+
+    /**
+     * @param frameBuffer the buffered raw data
+     * @return the number of bytes to discard so that the next frame starts on the best scoring boundary, or -1 if
+     * fewer than {@link #getRequiredBytes()} bytes are buffered. 0, the current boundary, wins ties, so another
+     * boundary is only returned if it scores strictly better.
+     */
+    public int findAlignment(CanFrameRingBuffer frameBuffer) {
+        if (frameBuffer.available() < getRequiredBytes()) {
+            return -1;
+        }
+        int bestOffset = 0;
+        bestScore = -1;
+        for (int offset = 0; offset < CAN_MSG_SIZE_BYTES; offset++) {
+            int score = score(frameBuffer, offset);
+            if (score > bestScore) {
+                bestScore = score;
+                bestOffset = offset;
+            }
+        }
+        return bestOffset;
+    }
+
+    private int score(CanFrameRingBuffer frameBuffer, int offset) {
+        int score = 0;
+        for (int i = 0; i < windowFrames; i++) {
+            int start = offset + i * CAN_MSG_SIZE_BYTES;
+            int id = 0;
+            for (int j = 0; j < CAN_MSG_ID_SIZE_BYTES; j++) {
+                id = (id << 8) | frameBuffer.peek(start + j);
+            }
+            if (CanMessageTemplateDB.isKnownId(id)) {
+                score += KNOWN_ID_SCORE;
+            } else if (id < CanMessageTemplateDB.STANDARD_ID_COUNT) {
+                score += STANDARD_ID_SCORE;
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import static lk.vega.cantool.can.CanMessage.CAN_MSG_SIZE_BYTES;
+
+/**
+ * Fixed capacity byte ring buffer which accumulates raw serial data and hands out complete
+ * {@link CanMessage#CAN_MSG_SIZE_BYTES} byte frames.
+ * <p/>
+ * The buffer is allocated once when it is created. Writing bytes and reading frames only copy bytes into
+ * caller supplied arrays, so framing does not allocate in steady state.
+ * <p/>
+ * Not thread safe
+ */
+public class CanFrameRingBuffer {
+
+    public static final int DEFAULT_CAPACITY = 8 * 1024;
+
+    private final byte[] buffer;
+    private final int mask;
+
+    /**
+     * Total number of bytes ever read from & written to this buffer. The difference is the number of buffered bytes.
+     */
+    private long readPosition;
+    private long writePosition;
+
+    public CanFrameRingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the capacity in bytes. Rounded up to the next power of two, and at least one CAN frame.
+     */
+    public CanFrameRingBuffer(int capacity) {
+        int minSize = Math.max(capacity, CAN_MSG_SIZE_BYTES);
+        int size = Integer.highestOneBit(minSize);
+        if (size < minSize) {
+            size <<= 1;
+        }
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return the number of buffered bytes which have not yet been read
+     */
+    public int available() {
+        return (int) (writePosition - readPosition);
+    }
+
+    /**
+     * @return the number of bytes which can be written before the buffer is full
+     */
+    public int remaining() {
+        return buffer.length - available();
+    }
+
+    /**
+     * @return true if at least one complete CAN frame is buffered
+     */
+    public boolean hasFrame() {
+        return available() >= CAN_MSG_SIZE_BYTES;
+    }
+
+    /**
+     * Copies as many bytes as fit into the buffer. Callers should drain frames with
+     * {@link #readFrame(byte[], int)} and write the rest if fewer than <code>length</code> bytes were accepted.
+     *
+     * @param src    the source array
+     * @param offset the offset of the first byte in <code>src</code>
+     * @param length the number of bytes to write
+     * @return the number of bytes actually written
+     */
+    public int write(byte[] src, int offset, int length) {
+        int count = Math.min(length, remaining());
+        if (count <= 0) {
+            return 0;
+        }
+        int start = (int) (writePosition & mask);
+        int firstPart = Math.min(count, buffer.length - start);
+        System.arraycopy(src, offset, buffer, start, firstPart);
+        if (firstPart < count) {
+            System.arraycopy(src, offset + firstPart, buffer, 0, count - firstPart);
+        }
+        writePosition += count;
+        return count;
+    }
+
+    /**
+     * Removes the next complete CAN frame from the buffer.
+     *
+     * @param dest   the array to copy the frame into
+     * @param offset the offset in <code>dest</code> at which the frame is written
+     * @return true if a frame was copied, false if less than a complete frame is buffered
+     */
+    public boolean readFrame(byte[] dest, int offset) {
+        if (!hasFrame()) {
+            return false;
+        }
+        int start = (int) (readPosition & mask);
+        int firstPart = Math.min(CAN_MSG_SIZE_BYTES, buffer.length - start);
+        System.arraycopy(buffer, start, dest, offset, firstPart);
+        if (firstPart < CAN_MSG_SIZE_BYTES) {
+            System.arraycopy(buffer, 0, dest, offset + firstPart, CAN_MSG_SIZE_BYTES - firstPart);
+        }
+        readPosition += CAN_MSG_SIZE_BYTES;
+        return true;
+    }
+
+    /**
+     * @param index the index of the byte, relative to the next byte to be read
+     * @return the buffered byte at <code>index</code> as an unsigned value, without removing it
+     */
+    public int peek(int index) {
+        if (index < 0 || index >= available()) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", " + available() + " bytes buffered");
+        }
+        return buffer[(int) ((readPosition + index) & mask)] & 0xFF;
+    }
+
+    /**
+     * Discards buffered bytes
+     *
+     * @param count the number of bytes to discard
+     * @return the number of bytes actually discarded
+     */
+    public int skip(int count) {
+        int skipped = Math.min(count, available());
+        readPosition += skipped;
+        return skipped;
+    }
+
+    /**
+     * Discards all buffered bytes, including a partially received frame
+     */
+    public void clear() {
+        readPosition = writePosition;
+    }
+}
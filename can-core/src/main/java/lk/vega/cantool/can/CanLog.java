@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging facade for the CAN pipeline. The pipeline does not depend on a platform logging API; the host application
+ * installs a {@link CanLogger} which forwards to the platform logger, for example android.util.Log. Until then, log
+ * records go to java.util.logging.
+ */
+public final class CanLog {
+
+    /**
+     * Receives the log records of the CAN pipeline
+     */
+    public interface CanLogger {
+        void d(String tag, String msg);
+
+        void i(String tag, String msg);
+
+        void w(String tag, String msg, Throwable tr);
+
+        void e(String tag, String msg, Throwable tr);
+    }
+
+    private static volatile CanLogger logger = new JulLogger();
+
+    private CanLog() {
+    }
+
+    /**
+     * @param canLogger the logger to use, or null to log to java.util.logging
+     */
+    public static void setLogger(CanLogger canLogger) {
+        logger = canLogger != null ? canLogger : new JulLogger();
+    }
+
+    public static void d(String tag, String msg) {
+        logger.d(tag, msg);
+    }
+
+    public static void i(String tag, String msg) {
+        logger.i(tag, msg);
+    }
+
+    public static void w(String tag, String msg) {
+        logger.w(tag, msg, null);
+    }
+
+    public static void w(String tag, String msg, Throwable tr) {
+        logger.w(tag, msg, tr);
+    }
+
+    public static void e(String tag, String msg) {
+        logger.e(tag, msg, null);
+    }
+
+    public static void e(String tag, String msg, Throwable tr) {
+        logger.e(tag, msg, tr);
+    }
+
+    private static class JulLogger implements CanLogger {
+
+        @Override
+        public void d(String tag, String msg) {
+            Logger.getLogger(tag).log(Level.FINE, msg);
+        }
+
+        @Override
+        public void i(String tag, String msg) {
+            Logger.getLogger(tag).log(Level.INFO, msg);
+        }
+
+        @Override
+        public void w(String tag, String msg, Throwable tr) {
+            Logger.getLogger(tag).log(Level.WARNING, msg, tr);
+        }
+
+        @Override
+        public void e(String tag, String msg, Throwable tr) {
+            Logger.getLogger(tag).log(Level.SEVERE, msg, tr);
+        }
+    }
+}
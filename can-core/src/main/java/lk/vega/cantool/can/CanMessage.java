@@ -0,0 +1,206 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+/**
+ * Represents a CAN message
+ * <p/>
+ * The message ID & the data are held in primitive fields. {@link #getId()}, {@link #getPayload()} &
+ * {@link #getDataByte(int)} read them without allocating. {@link #getRaw()}, {@link #getMessageId()} &
+ * {@link #getData()} are kept for existing callers, and return a new array on each call.
+ * <p/>
+ * Received messages come from a {@link CanMessagePool} and are recycled once they have been dispatched, so a
+ * {@link lk.vega.cantool.can.messages.CanMessageBroker} which keeps a received message must keep a {@link #copy()}.
+ * <p/>
+ * A received message also carries the {@link #getSource() source} it was received from, and the time it was
+ * received at, which {@link CanMessageMerger} orders the messages of several sources by.
+ */
+public class CanMessage {
+    public static final int CAN_MSG_SIZE_BYTES = 10;
+    public static final int CAN_MSG_ID_SIZE_BYTES = 2;
+    public static final int CAN_MSG_DATA_SIZE_BYTES = CAN_MSG_SIZE_BYTES - CAN_MSG_ID_SIZE_BYTES;
+
+    private int id;
+    private long payload;
+    private int source;
+    private long timestampNanos;
+    private boolean received;
+
+    /**
+     * The pool this message is returned to when it is recycled, or null if the message is not pooled
+     */
+    private final CanMessagePool pool;
+
+    public CanMessage(byte[] raw) {
+        this.pool = null;
+        set(raw, 0);
+    }
+
+    CanMessage(CanMessagePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Overwrites this message with a raw CAN message
+     *
+     * @param raw    the array containing the raw message
+     * @param offset the offset of the raw message in <code>raw</code>
+     */
+    public void set(byte[] raw, int offset) {
+        int messageId = 0;
+        for (int i = 0; i < CAN_MSG_ID_SIZE_BYTES; i++) {
+            messageId = (messageId << 8) | (raw[offset + i] & 0xFF);
+        }
+        long data = 0;
+        for (int i = CAN_MSG_ID_SIZE_BYTES; i < CAN_MSG_SIZE_BYTES; i++) {
+            data = (data << 8) | (raw[offset + i] & 0xFF);
+        }
+        this.id = messageId;
+        this.payload = data;
+    }
+
+    /**
+     * Sets where & when a received message was received
+     *
+     * @param source         the index of the source in the {@link CanPipeline}
+     * @param timestampNanos the {@link System#nanoTime()} at which the last byte of the message was received
+     */
+    void setReceived(int source, long timestampNanos) {
+        this.source = source;
+        this.timestampNanos = timestampNanos;
+        this.received = true;
+    }
+
+    /**
+     * @return true if the message was received, and so has a {@link #getTimestampNanos() timestamp}. Any long,
+     * including 0, can be a {@link System#nanoTime()}, so the timestamp itself cannot tell.
+     */
+    public boolean isReceived() {
+        return received;
+    }
+
+    /**
+     * @return the index of the {@link CanPipeline} source, i.e. the adapter & bus, the message was received from.
+     * 0 for messages which were not received, and for a pipeline with a single source.
+     */
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the last byte of the message was received. Only meaningful if
+     * the message {@link #isReceived() was received}. Interpolated from the time the data was read from the adapter, so the time a message spent queued
+     * in the pipeline is not included. Use {@link WallClock} to convert it to wall clock time.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return the wall clock time in milliseconds since the epoch at which the message was received, or 0 if it was
+     * not received
+     */
+    public long getWallClockMillis() {
+        return received ? WallClock.toMillis(timestampNanos) : 0;
+    }
+
+    /**
+     * @return the message ID
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the data bytes packed into a long, with the first data byte in the most significant byte
+     */
+    public long getPayload() {
+        return payload;
+    }
+
+    /**
+     * @param index the index of the data byte, starting from 0
+     * @return the data byte at <code>index</code>, as an unsigned value
+     */
+    public int getDataByte(int index) {
+        if (index < 0 || index >= CAN_MSG_DATA_SIZE_BYTES) {
+            throw new IndexOutOfBoundsException("Invalid CAN data byte index " + index);
+        }
+        return (int) (payload >>> ((CAN_MSG_DATA_SIZE_BYTES - 1 - index) * 8)) & 0xFF;
+    }
+
+    /**
+     * Writes the raw message into an array
+     *
+     * @param dest   the destination array
+     * @param offset the offset in <code>dest</code> at which the {@link #CAN_MSG_SIZE_BYTES} bytes are written
+     */
+    public void writeTo(byte[] dest, int offset) {
+        for (int i = CAN_MSG_ID_SIZE_BYTES - 1, value = id; i >= 0; i--, value >>>= 8) {
+            dest[offset + i] = (byte) value;
+        }
+        long data = payload;
+        for (int i = CAN_MSG_SIZE_BYTES - 1; i >= CAN_MSG_ID_SIZE_BYTES; i--, data >>>= 8) {
+            dest[offset + i] = (byte) data;
+        }
+    }
+
+    public byte[] getRaw() {
+        byte[] raw = new byte[CAN_MSG_SIZE_BYTES];
+        writeTo(raw, 0);
+        return raw;
+    }
+
+    public byte[] getMessageId() {
+        byte[] messageId = new byte[CAN_MSG_ID_SIZE_BYTES];
+        for (int i = CAN_MSG_ID_SIZE_BYTES - 1, value = id; i >= 0; i--, value >>>= 8) {
+            messageId[i] = (byte) value;
+        }
+        return messageId;
+    }
+
+    public byte[] getData() {
+        byte[] data = new byte[CAN_MSG_DATA_SIZE_BYTES];
+        long value = payload;
+        for (int i = CAN_MSG_DATA_SIZE_BYTES - 1; i >= 0; i--, value >>>= 8) {
+            data[i] = (byte) value;
+        }
+        return data;
+    }
+
+    /**
+     * @return an unpooled copy of this message, which is not affected when this message is recycled
+     */
+    public CanMessage copy() {
+        CanMessage copy = new CanMessage((CanMessagePool) null);
+        copy.id = id;
+        copy.payload = payload;
+        copy.source = source;
+        copy.timestampNanos = timestampNanos;
+        copy.received = received;
+        return copy;
+    }
+
+    /**
+     * Returns this message to its pool. The message must not be used after it has been recycled.
+     */
+    public void recycle() {
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import lk.vega.cantool.util.HexDump;
+
+import static lk.vega.cantool.can.CanMessage.CAN_MSG_SIZE_BYTES;
+
+/**
+ * Processes the raw bytes of a {@link SpscByteRing} and creates {@link lk.vega.cantool.can.CanMessage}s
+ * <p/>
+ * When resynchronization is enabled, several consecutive messages whose IDs cannot be valid, i.e. are not
+ * standard 11 bit IDs and have no template in the {@link CanMessageTemplateDB}, make the framer assume that it has
+ * lost the message boundary, for example because a byte was dropped. An ID which is merely unknown is not
+ * evidence, since an analyzer sees plenty of those. The framer then scores the alignments of the buffered data
+ * with a {@link CanFrameAligner}, and only moves to another alignment if it scores strictly better than the current
+ * one. At most a frame's worth of bytes is discarded, and none if the current alignment scores best.
+ * <p/>
+ * Each message is stamped with the time its last byte was received, which is looked up in the
+ * {@link ReceiveTimeline} of the raw byte ring. Without a timeline, messages are stamped with the time they are
+ * framed.
+ * <p/>
+ * Not thread safe. {@link #run()} must always be called by the consumer thread of the raw byte ring, which is
+ * also the producer thread of the CAN message queue. {@link #reset()} & {@link #setWaitingForSyncAck(boolean)} may
+ * be called from any thread.
+ */
+public class CanMessageBuilder implements Runnable {
+
+    /**
+     * Time to wait for the rest of a partially received message before it is discarded
+     */
+    private static final long PARTIAL_MSG_TIMEOUT_MILLIS = 250;
+
+    /**
+     * Number of consecutive messages with invalid IDs after which the framer resynchronizes
+     */
+    public static final int MISALIGNED_MSG_THRESHOLD = 3;
+
+    /**
+     * Holds the bytes of a message which has not been completely received yet
+     */
+    private final CanFrameRingBuffer frameBuffer = new CanFrameRingBuffer();
+
+    /**
+     * Number of raw bytes taken out of the raw byte ring at a time
+     */
+    private static final int RAW_CHUNK_SIZE = 1024;
+
+    /**
+     * Holds the raw bytes taken out of the raw byte ring while they are processed
+     */
+    private final byte[] rawChunk = new byte[RAW_CHUNK_SIZE];
+
+    /**
+     * Holds a single frame while it is copied from the frame buffer into a {@link CanMessage}
+     */
+    private final byte[] frame = new byte[CAN_MSG_SIZE_BYTES];
+
+    /**
+     * Looks for the {@link CanConstants#CAN_SYNC_ACK} in the raw data while waiting for the sync ACK
+     */
+    private final ByteSequenceMatcher syncAckMatcher =
+            new ByteSequenceMatcher(HexDump.hexStringToByteArray(CanConstants.CAN_SYNC_ACK));
+
+    private final CanFrameAligner frameAligner = new CanFrameAligner();
+    private volatile boolean resyncEnabled;
+    private boolean resyncing;
+    private int invalidIdMsgCount;
+
+    private volatile long resyncCount;
+    private volatile long discardedByteCount;
+
+    /**
+     * The time we started waiting to receive the rest of the message
+     */
+    private long waitStartForRestOfMsg = -1;
+
+    private final SpscByteRing rawByteRing;
+    private final SpscRingQueue<CanMessage> canMessageQueue;
+    private final CanMessagePool canMessagePool;
+
+    /**
+     * A message which was rejected by the full queue, and is reused for the next frame. The framer never releases
+     * messages to the pool itself, since the dispatch thread is the pool's only releasing thread.
+     */
+    private CanMessage spareMessage;
+    private final int source;
+    private final ReceiveTimeline receiveTimeline;
+    private volatile boolean waitingForSyncAck;
+
+    /**
+     * Set by {@link #reset()}, and handled on the thread which runs this builder
+     */
+    private volatile boolean resetRequested;
+    private volatile long discardRawBytesUntil;
+
+    public CanMessageBuilder(SpscByteRing rawByteRing, SpscRingQueue<CanMessage> canMessageQueue) {
+        this(rawByteRing, canMessageQueue, 0, null);
+    }
+
+    /**
+     * @param source          the index of the source the raw bytes come from. Set on every message created.
+     * @param receiveTimeline the receive times of the raw bytes, or null to stamp messages when they are framed
+     */
+    public CanMessageBuilder(SpscByteRing rawByteRing, SpscRingQueue<CanMessage> canMessageQueue, int source,
+                             ReceiveTimeline receiveTimeline) {
+        this.rawByteRing = rawByteRing;
+        this.canMessageQueue = canMessageQueue;
+        this.source = source;
+        this.receiveTimeline = receiveTimeline;
+        // Every queued message, the one being dispatched & the spare can be in use at the same time
+        this.canMessagePool = new CanMessagePool(canMessageQueue.capacity() + 2);
+    }
+
+    @Override
+    public void run() {
+        if (resetRequested) {
+            resetRequested = false;
+            frameBuffer.clear();
+            syncAckMatcher.reset();
+            resyncing = false;
+            invalidIdMsgCount = 0;
+            rawByteRing.discardUntil(discardRawBytesUntil);
+        }
+        int length;
+        long position = rawByteRing.getConsumedCount();
+        while ((length = rawByteRing.read(rawChunk, 0, rawChunk.length)) > 0) {
+            process(rawChunk, length, position);
+            position += length;
+        }
+    }
+
+    /**
+     * @return the pool the CAN messages created by this builder are taken from
+     */
+    public CanMessagePool getCanMessagePool() {
+        return canMessagePool;
+    }
+
+    /**
+     * Enables or disables resynchronization when the message boundary is lost. Disabled by default, until it has
+     * been validated against captured traffic.
+     */
+    public void setResyncEnabled(boolean resyncEnabled) {
+        this.resyncEnabled = resyncEnabled;
+    }
+
+    /**
+     * @return the number of times the framer has resynchronized
+     */
+    public long getResyncCount() {
+        return resyncCount;
+    }
+
+    /**
+     * @return the number of bytes discarded while resynchronizing
+     */
+    public long getDiscardedByteCount() {
+        return discardedByteCount;
+    }
+
+    public void setWaitingForSyncAck(boolean waitingForSyncAck) {
+        this.waitingForSyncAck = waitingForSyncAck;
+        reset();
+    }
+
+    /**
+     * Discards the partially received message, and the raw bytes which have been received up to now. The reset is
+     * carried out the next time this builder is run, so raw bytes received after this call are not lost.
+     */
+    public void reset(){
+        discardRawBytesUntil = rawByteRing.getProducedCount();
+        resetRequested = true;
+    }
+
+    /**
+     * @return the index of the source the raw bytes come from
+     */
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     * @param position the position of the first byte of <code>rawMsg</code> in the raw byte ring
+     */
+    private void process(byte[] rawMsg, int length, long position) {
+        // Without a timeline, all the messages completed by this chunk are stamped with the time it was framed
+        long framedNanos = receiveTimeline == null ? System.nanoTime() : 0;
+        int offset = 0;
+        if(waitingForSyncAck){
+            // The ACK may be split across raw chunks, so the matcher remembers how much of it has been seen
+            int ackEnd = syncAckMatcher.find(rawMsg, 0, length);
+            if (ackEnd < 0) {
+                return;
+            }
+            waitingForSyncAck = false;
+            // The first message starts right after the ACK
+            offset = ackEnd;
+        }
+        if (frameBuffer.available() > 0 &&
+                System.currentTimeMillis() - waitStartForRestOfMsg > PARTIAL_MSG_TIMEOUT_MILLIS) {
+            // The rest of the partially received message never arrived
+            frameBuffer.clear();
+        }
+        while (offset < length) {
+            offset += frameBuffer.write(rawMsg, offset, length - offset);
+
+            // loop until all complete msgs are retrieved
+            while ((!resyncing || resync()) && frameBuffer.readFrame(frame, 0)) {
+                CanMessage canMessage = spareMessage;
+                if (canMessage == null) {
+                    canMessage = canMessagePool.acquire();
+                } else {
+                    spareMessage = null;
+                }
+                canMessage.set(frame, 0);
+                if (receiveTimeline == null) {
+                    canMessage.setReceived(source, framedNanos);
+                } else {
+                    // The bytes after the message are still in the frame buffer
+                    long lastBytePosition = position + offset - frameBuffer.available() - 1;
+                    canMessage.setReceived(source, receiveTimeline.timestampOf(lastBytePosition));
+                }
+                checkAlignment(canMessage.getId());
+                if (!canMessageQueue.offer(canMessage)) {
+                    // The queue is full. The message is dropped, and counted by the queue
+                    spareMessage = canMessage;
+                }
+            }
+        }
+        if (frameBuffer.available() > 0) { // wait for the rest of the message to arrive
+            waitStartForRestOfMsg = System.currentTimeMillis();
+        }
+    }
+
+    private void checkAlignment(int canMessageId) {
+        if (!resyncEnabled || canMessageId < CanMessageTemplateDB.STANDARD_ID_COUNT ||
+                CanMessageTemplateDB.isKnownId(canMessageId)) {
+            invalidIdMsgCount = 0;
+        } else if (++invalidIdMsgCount >= MISALIGNED_MSG_THRESHOLD) {
+            resyncing = true;
+        }
+    }
+
+    /**
+     * Moves to the best scoring alignment of the buffered data. The current alignment is kept unless another one
+     * scores strictly better.
+     *
+     * @return true if the framer is locked on to a boundary again, false if more data is needed
+     */
+    private boolean resync() {
+        int offset = frameAligner.findAlignment(frameBuffer);
+        if (offset < 0) {
+            return false;
+        }
+        if (offset > 0) {
+            discardedByteCount += frameBuffer.skip(offset);
+            resyncCount++;
+        }
+        resyncing = false;
+        invalidIdMsgCount = 0;
+        return true;
+    }
+}
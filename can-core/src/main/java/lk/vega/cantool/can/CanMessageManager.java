@@ -16,38 +16,23 @@
  */
 package lk.vega.cantool.can;
 
-import java.util.Queue;
-
 /**
- * Handles receiving CAN messages and dispatching those messages to the respective CanMessageProcessors
+ * Dispatches received CAN messages to the {@link lk.vega.cantool.can.messages.CanMessageBroker}s of their templates.
+ * The messages are taken off the pipeline's queues by a {@link CanMessageMerger}.
  */
-public class CanMessageManager implements Runnable {
-    private final Queue<CanMessage> canMsgQueue;
-
-    public CanMessageManager(Queue<CanMessage> canMsgQueue) {
-        this.canMsgQueue = canMsgQueue;
-    }
+public class CanMessageManager {
 
     public void messageReceived(CanMessage canMessage) {
-        CanMessageTemplate template = CanMessageTemplateDB.getTemplate(canMessage.getMessageId());
+        CanMessageTemplate template = CanMessageTemplateDB.getTemplate(canMessage.getId());
         if(template != null){
             template.getBroker().messageReceived(canMessage);
         }
 
         // If there is a CanMessageBroker that is interested in handling all CAN messages, then we dispatch to
         // such a processor as well
-        CanMessageTemplate allMessagesTemplate = CanMessageTemplateDB.getTemplate(CanConstants.ALL_MESSAGES);
+        CanMessageTemplate allMessagesTemplate = CanMessageTemplateDB.getAllMessagesTemplate();
         if(allMessagesTemplate != null){
             allMessagesTemplate.getBroker().messageReceived(canMessage);
         }
     }
-
-    @Override
-    public void run() {
-        CanMessage canMessage = canMsgQueue.poll();
-        while (canMessage != null) {
-            messageReceived(canMessage);
-            canMessage = canMsgQueue.poll();
-        }
-    }
 }
@@ -0,0 +1,161 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges the CAN messages of several sources into a single stream, ordered by the time the messages were
+ * received, and dispatches them through a {@link CanMessageManager}.
+ * <p/>
+ * Each source has its own {@link SpscRingQueue}, which is already in order. The oldest message at the head of the
+ * queues is dispatched as soon as every queue has a message, since no source can still deliver an older one. When
+ * some queues are empty, the oldest message is held back until it is {@link #getReorderWindowNanos() the reorder
+ * window} old, so that a source which is a little behind can still deliver older messages. A source which is
+ * further behind than the window delivers messages out of order, which are counted as {@link #getLateCount() late}.
+ * <p/>
+ * The queues bound the number of messages which can be held back. Not thread safe. {@link #run()} must always be
+ * called by the consumer thread of the queues. {@link #reset()} may be called from any thread.
+ */
+public class CanMessageMerger implements Runnable {
+
+    private final List<SpscRingQueue<CanMessage>> canMsgQueues;
+    private final CanMessageManager canMessageManager;
+    private final long reorderWindowNanos;
+
+    /**
+     * Set by {@link #reset()}, and handled on the thread which runs this merger
+     */
+    private volatile boolean resetRequested;
+    private final long[] discardMsgsUntil;
+
+    private boolean dispatched;
+    private long lastDispatchedNanos;
+    private long holdNanos;
+    private volatile long lateCount;
+
+    /**
+     * @param canMsgQueues       the queues of the sources, in source order
+     * @param canMessageManager  dispatches the merged messages
+     * @param reorderWindowNanos how long a message is held back for the sources which have nothing queued
+     */
+    public CanMessageMerger(List<SpscRingQueue<CanMessage>> canMsgQueues, CanMessageManager canMessageManager,
+                            long reorderWindowNanos) {
+        if (canMsgQueues.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one source");
+        }
+        this.canMsgQueues = new ArrayList<>(canMsgQueues);
+        this.canMessageManager = canMessageManager;
+        this.reorderWindowNanos = reorderWindowNanos;
+        this.discardMsgsUntil = new long[canMsgQueues.size()];
+    }
+
+    /**
+     * Discards the CAN messages which have been queued up to now, the next time this merger is run
+     */
+    public void reset() {
+        for (int i = 0; i < discardMsgsUntil.length; i++) {
+            discardMsgsUntil[i] = canMsgQueues.get(i).getProducedCount();
+        }
+        resetRequested = true;
+    }
+
+    @Override
+    public void run() {
+        if (resetRequested) {
+            resetRequested = false;
+            for (int i = 0; i < discardMsgsUntil.length; i++) {
+                discardUntil(canMsgQueues.get(i), discardMsgsUntil[i]);
+            }
+        }
+        holdNanos = 0;
+        long now = 0;
+        while (true) {
+            SpscRingQueue<CanMessage> oldestQueue = null;
+            long oldestNanos = 0;
+            boolean allQueued = true;
+            // Indexed, so that merging does not allocate an iterator per message
+            for (int i = 0; i < discardMsgsUntil.length; i++) {
+                SpscRingQueue<CanMessage> canMsgQueue = canMsgQueues.get(i);
+                CanMessage head = canMsgQueue.peek();
+                if (head == null) {
+                    allQueued = false;
+                } else if (oldestQueue == null || head.getTimestampNanos() - oldestNanos < 0) {
+                    oldestQueue = canMsgQueue;
+                    oldestNanos = head.getTimestampNanos();
+                }
+            }
+            if (oldestQueue == null) {
+                return;
+            }
+            if (!allQueued) {
+                if (now == 0 || now - oldestNanos < reorderWindowNanos) {
+                    now = System.nanoTime();
+                }
+                long age = now - oldestNanos;
+                if (age < reorderWindowNanos) {
+                    holdNanos = reorderWindowNanos - age;
+                    return;
+                }
+            }
+            CanMessage canMessage = oldestQueue.poll();
+            if (dispatched && oldestNanos - lastDispatchedNanos < 0) {
+                lateCount++;
+            } else {
+                dispatched = true;
+                lastDispatchedNanos = oldestNanos;
+            }
+            try {
+                canMessageManager.messageReceived(canMessage);
+            } finally {
+                // The brokers have been told that they must copy a message they want to keep
+                canMessage.recycle();
+            }
+        }
+    }
+
+    /**
+     * @return the time until the message held back by the last {@link #run()} is due, or 0 if no message is held
+     * back. The merger must be run again by then.
+     */
+    public long getHoldNanos() {
+        return holdNanos;
+    }
+
+    public long getReorderWindowNanos() {
+        return reorderWindowNanos;
+    }
+
+    /**
+     * @return the number of messages dispatched after a newer message of another source, because they arrived
+     * after the reorder window
+     */
+    public long getLateCount() {
+        return lateCount;
+    }
+
+    private static void discardUntil(SpscRingQueue<CanMessage> canMsgQueue, long consumedCount) {
+        while (canMsgQueue.getConsumedCount() < consumedCount) {
+            CanMessage discarded = canMsgQueue.poll();
+            if (discarded == null) {
+                break;
+            }
+            discarded.recycle();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+/**
+ * Pool of recyclable {@link CanMessage}s.
+ * <p/>
+ * Messages are acquired by the thread which frames received data, and released by the thread which dispatches
+ * them, so the free messages are kept in a {@link SpscRingQueue}. Only one thread may call {@link #acquire()}, and
+ * only one thread may release messages.
+ */
+public class CanMessagePool {
+
+    private final SpscRingQueue<CanMessage> freeMessages;
+    private volatile long missCount;
+
+    /**
+     * @param capacity the number of messages which are allocated up front
+     */
+    public CanMessagePool(int capacity) {
+        freeMessages = new SpscRingQueue<>(capacity);
+        for (int i = 0; i < freeMessages.capacity(); i++) {
+            freeMessages.offer(new CanMessage(this));
+        }
+    }
+
+    /**
+     * @return a free message. A new message is allocated if all the pooled messages are in use.
+     */
+    public CanMessage acquire() {
+        CanMessage canMessage = freeMessages.poll();
+        if (canMessage == null) {
+            missCount++;
+            canMessage = new CanMessage(this);
+        }
+        return canMessage;
+    }
+
+    void release(CanMessage canMessage) {
+        // If the pool is already full, the message is left to the garbage collector
+        freeMessages.offer(canMessage);
+    }
+
+    /**
+     * @return the number of free messages in the pool
+     */
+    public int getFreeCount() {
+        return freeMessages.size();
+    }
+
+    /**
+     * @return the number of times a message had to be allocated because the pool was empty
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+}
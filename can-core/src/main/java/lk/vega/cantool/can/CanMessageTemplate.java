@@ -16,10 +16,7 @@
  */
 package lk.vega.cantool.can;
 
-import android.util.Log;
-
 import lk.vega.cantool.can.messages.CanMessageBroker;
-import lk.vega.usbserial.util.SerialInputOutputManager;
 
 /**
  * Represents the template for a CAN message
@@ -29,12 +26,21 @@ public class CanMessageTemplate {
     private byte[] id;
     private String name;
     private String description;
+    private TransmitPriority priority = TransmitPriority.NORMAL;
     private CanMessageBroker broker;
 
     public CanMessageTemplate() {
     }
 
     public CanMessageTemplate(byte[] id, String name, String description, String processorClass) {
+        this(id, name, description, processorClass, TransmitPriority.NORMAL);
+    }
+
+    /**
+     * @param priority the priority with which the broker sends messages
+     */
+    public CanMessageTemplate(byte[] id, String name, String description, String processorClass,
+                              TransmitPriority priority) {
         this.id = id;
         this.name = name;
         this.description = description;
@@ -42,9 +48,11 @@ public class CanMessageTemplate {
             broker = (CanMessageBroker) Class.forName(processorClass).newInstance();
         } catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
             String msg = "Could not instantiate CanMessageBroker class " + processorClass;
-            Log.e(CanMessageTemplate.class.getSimpleName(), msg);
+            CanLog.e(CanMessageTemplate.class.getSimpleName(), msg);
             throw new RuntimeException(msg, e);
         }
+        this.priority = priority;
+        broker.setTransmitPriority(priority);
     }
 
     public byte[] getId() {
@@ -59,11 +67,15 @@ public class CanMessageTemplate {
         return description;
     }
 
+    public TransmitPriority getPriority() {
+        return priority;
+    }
+
     public CanMessageBroker getBroker() {
         return broker;
     }
 
-    public void setSerialIoManager(SerialInputOutputManager serialIoManager) {
-        broker.setSerialIoManager(serialIoManager);
+    public void setMessageWriter(CanMessageWriter messageWriter) {
+        broker.setMessageWriter(messageWriter);
     }
 }
@@ -0,0 +1,266 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import lk.vega.cantool.util.HexDump;
+
+/**
+ * This class loads all the CAN message types that are supported by the system & is used as a central DB for keeping
+ * all the templates for the CAN message types
+ */
+public class CanMessageTemplateDB {
+
+    public static final String HANDLER = "handler";
+
+    /**
+     * Optional attribute of a handler with its {@link TransmitPriority}, for example <code>priority="high"</code>
+     */
+    public static final String PRIORITY = "priority";
+
+    /**
+     * Number of 11 bit standard CAN message IDs. Templates for these IDs are looked up directly by ID.
+     */
+    public static final int STANDARD_ID_COUNT = 1 << 11;
+
+    /**
+     * key - CAN message ID
+     */
+    private static Map<String, CanMessageTemplate> templates;
+
+    /**
+     * Dispatch tables built from {@link #templates} when the DB is loaded. Templates for standard IDs are indexed by
+     * ID. The IDs of the remaining templates are kept sorted in {@link #extendedIds}, and the template for
+     * <code>extendedIds[i]</code> is <code>extendedTemplates[i]</code>.
+     */
+    private static volatile CanMessageTemplate[] standardTemplates = new CanMessageTemplate[STANDARD_ID_COUNT];
+    private static volatile int[] extendedIds = new int[0];
+    private static volatile CanMessageTemplate[] extendedTemplates = new CanMessageTemplate[0];
+
+    /**
+     * The template for the broker which is interested in all CAN messages, or null
+     */
+    private static volatile CanMessageTemplate allMessagesTemplate;
+
+    /**
+     * True if there is at least one template for a specific message ID
+     */
+    private static volatile boolean hasKnownIds;
+
+    public static final String CAN_MESSAGE_TEMPLATE_FILENAME = "can_messages.xml";
+
+    /**
+     * Loads the templates from {@link #CAN_MESSAGE_TEMPLATE_FILENAME}
+     *
+     * @param assetLoader opens the template file
+     */
+    public static void parse(AssetLoader assetLoader) {
+        InputStream in = null;
+        try {
+            in = assetLoader.open(CAN_MESSAGE_TEMPLATE_FILENAME);
+            parse(in);
+        } catch (IOException e) {
+            CanLog.e(CanMessageTemplateDB.class.getSimpleName(), "Error occurred while loading " + CAN_MESSAGE_TEMPLATE_FILENAME, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the templates from a template XML stream. The caller closes the stream.
+     *
+     * @param in the template XML
+     */
+    public static void parse(InputStream in) {
+        try {
+            SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+            parserFactory.setNamespaceAware(false);
+            parserFactory.newSAXParser().parse(in, new TemplateHandler());
+            buildDispatchTables();
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            CanLog.e(CanMessageTemplateDB.class.getSimpleName(), "Error occurred while parsing CAN message templates", e);
+        }
+    }
+
+    public static CanMessageTemplate getTemplate(byte[] canMessageId){
+        return getTemplate(toMessageId(canMessageId));
+    }
+
+    /**
+     * Looks up the template for a message ID without allocating. This is called for every received message.
+     *
+     * @param canMessageId the numeric CAN message ID
+     * @return the template, or null if there is no template for this ID
+     */
+    public static CanMessageTemplate getTemplate(int canMessageId) {
+        if (canMessageId >= 0 && canMessageId < STANDARD_ID_COUNT) {
+            return standardTemplates[canMessageId];
+        }
+        int[] ids = extendedIds;
+        CanMessageTemplate[] extended = extendedTemplates;
+        int index = Arrays.binarySearch(ids, canMessageId);
+        return index >= 0 && index < extended.length ? extended[index] : null;
+    }
+
+    /**
+     * @param canMessageId the numeric CAN message ID
+     * @return true if there is a template for this specific message ID
+     */
+    public static boolean isKnownId(int canMessageId) {
+        return getTemplate(canMessageId) != null;
+    }
+
+    /**
+     * @return true if there is a template for at least one specific message ID
+     */
+    public static boolean hasKnownIds() {
+        return hasKnownIds;
+    }
+
+    /**
+     * @return the template of the broker which handles all CAN messages, or null if there is no such broker
+     */
+    public static CanMessageTemplate getAllMessagesTemplate() {
+        return allMessagesTemplate;
+    }
+
+    public static CanMessageTemplate getTemplate(String canMessageId){
+        return templates.get(canMessageId);
+    }
+
+    private static class TemplateHandler extends DefaultHandler {
+        private CanMessageTemplate template;
+
+        @Override
+        public void startDocument() {
+            templates = new HashMap<>();
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (qName.equals(HANDLER)) {
+                String name = attributes.getValue("name");
+                String description = attributes.getValue("description");
+                String id = attributes.getValue("id");
+                String processorClass = attributes.getValue("class");
+                TransmitPriority priority = toPriority(attributes.getValue(PRIORITY), name);
+
+                if (id.equals(CanConstants.ALL_MESSAGES)) {
+                    template = new CanMessageTemplate(null, name, description, processorClass, priority);
+                } else {
+                    template = new CanMessageTemplate(HexDump.hexStringToByteArray(id), name, description,
+                            processorClass, priority);
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (qName.equals(HANDLER) && template != null) {
+                byte[] id = template.getId();
+                if (id != null) {
+                    templates.put(HexDump.toHexString(id), template);
+                } else {
+                    templates.put(CanConstants.ALL_MESSAGES, template);
+                }
+            }
+        }
+    }
+
+    private static TransmitPriority toPriority(String priority, String handlerName) {
+        if (priority == null) {
+            return TransmitPriority.NORMAL;
+        }
+        try {
+            return TransmitPriority.valueOf(priority.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            CanLog.w(CanMessageTemplateDB.class.getSimpleName(),
+                    "Unknown priority " + priority + " of handler " + handlerName + ", using " + TransmitPriority.NORMAL);
+            return TransmitPriority.NORMAL;
+        }
+    }
+
+    private static void buildDispatchTables() {
+        CanMessageTemplate[] standard = new CanMessageTemplate[STANDARD_ID_COUNT];
+        Map<Integer, CanMessageTemplate> extended = new HashMap<>();
+        boolean knownIds = false;
+        for (CanMessageTemplate template : templates.values()) {
+            byte[] id = template.getId();
+            if (id == null) {
+                continue;
+            }
+            knownIds = true;
+            int messageId = toMessageId(id);
+            if (messageId >= 0 && messageId < STANDARD_ID_COUNT) {
+                standard[messageId] = template;
+            } else {
+                extended.put(messageId, template);
+            }
+        }
+        int[] ids = new int[extended.size()];
+        int i = 0;
+        for (Integer messageId : extended.keySet()) {
+            ids[i++] = messageId;
+        }
+        Arrays.sort(ids);
+        CanMessageTemplate[] extendedTemplatesById = new CanMessageTemplate[ids.length];
+        for (i = 0; i < ids.length; i++) {
+            extendedTemplatesById[i] = extended.get(ids[i]);
+        }
+
+        extendedTemplates = extendedTemplatesById;
+        extendedIds = ids;
+        standardTemplates = standard;
+        allMessagesTemplate = templates.get(CanConstants.ALL_MESSAGES);
+        hasKnownIds = knownIds;
+    }
+
+    /**
+     * Converts a big endian CAN message ID of up to 4 bytes to an int
+     */
+    private static int toMessageId(byte[] canMessageId) {
+        int messageId = 0;
+        for (byte b : canMessageId) {
+            messageId = (messageId << 8) | (b & 0xFF);
+        }
+        return messageId;
+    }
+
+    public static void setMessageWriter(CanMessageWriter messageWriter) {
+        for (CanMessageTemplate template : templates.values()) {
+            template.setMessageWriter(messageWriter);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+/**
+ * Sends raw CAN messages to the device. This is implemented by the host application on top of its serial port.
+ */
+public interface CanMessageWriter {
+
+    /**
+     * Queues the raw message for writing to the device without blocking the caller
+     *
+     * @param data the raw CAN message
+     * @param priority messages of a higher priority are written before waiting messages of a lower priority
+     * @return false if the message was not queued because too many messages of its priority are waiting to be
+     * written
+     */
+    boolean writeAsync(byte[] data, TransmitPriority priority);
+}
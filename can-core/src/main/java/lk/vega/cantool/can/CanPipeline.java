@@ -0,0 +1,290 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects the serial data received from the device to the {@link lk.vega.cantool.can.messages.CanMessageBroker}s.
+ * <p/>
+ * Raw data is framed by a {@link CanMessageBuilder} on the framing stage, and the resulting {@link CanMessage}s are
+ * dispatched by a {@link CanMessageManager} on the dispatch stage. Each stage is woken up as soon as there is
+ * work for it, and sleeps otherwise.
+ * <p/>
+ * Each queue between the stages has a single producer & a single consumer thread, so the stages are connected by a
+ * bounded {@link SpscByteRing} for the raw data and a bounded {@link SpscRingQueue} for the CAN messages. Data which
+ * arrives while a queue is full is dropped, and counted by the queue.
+ * <p/>
+ * A pipeline can have several sources, for example one adapter on each CAN bus. Each source has its own raw byte
+ * ring, framing stage & message queue, and tags its messages with its index. The single dispatch stage merges the
+ * sources in the order the messages were received with a {@link CanMessageMerger}.
+ * <p/>
+ * Each source also has a {@link ReceiveTimeline}, which the time each chunk of raw data was read is recorded in,
+ * so that every message is stamped with the time it was received rather than the time it was framed.
+ */
+public class CanPipeline {
+
+    public static final int DEFAULT_RAW_BYTE_RING_CAPACITY = 64 * 1024;
+    public static final int DEFAULT_CAN_MSG_QUEUE_CAPACITY = 4096;
+    public static final long DEFAULT_REORDER_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final Source[] sources;
+
+    private final CanMessageManager canMessageManager;
+    private final CanMessageMerger canMessageMerger;
+
+    private final PipelineStage dispatchStage;
+
+    public CanPipeline() {
+        this(DEFAULT_RAW_BYTE_RING_CAPACITY, DEFAULT_CAN_MSG_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param rawByteRingCapacity the number of raw bytes which can wait to be framed
+     * @param canMsgQueueCapacity the number of CAN messages which can wait to be dispatched
+     */
+    public CanPipeline(int rawByteRingCapacity, int canMsgQueueCapacity) {
+        this(1, rawByteRingCapacity, canMsgQueueCapacity, DEFAULT_REORDER_WINDOW_NANOS);
+    }
+
+    /**
+     * @param sourceCount         the number of sources
+     * @param rawByteRingCapacity the number of raw bytes of each source which can wait to be framed
+     * @param canMsgQueueCapacity the number of CAN messages of each source which can wait to be dispatched
+     * @param reorderWindowNanos  how long a message is held back for the other sources to catch up
+     */
+    public CanPipeline(int sourceCount, int rawByteRingCapacity, int canMsgQueueCapacity, long reorderWindowNanos) {
+        if (sourceCount <= 0) {
+            throw new IllegalArgumentException("Source count must be positive: " + sourceCount);
+        }
+        sources = new Source[sourceCount];
+        List<SpscRingQueue<CanMessage>> canMsgQueues = new ArrayList<>(sourceCount);
+        for (int i = 0; i < sourceCount; i++) {
+            sources[i] = new Source(i, rawByteRingCapacity, canMsgQueueCapacity);
+            canMsgQueues.add(sources[i].canMsgQueue);
+        }
+        canMessageManager = new CanMessageManager();
+        canMessageMerger = new CanMessageMerger(canMsgQueues, canMessageManager, reorderWindowNanos);
+
+        dispatchStage = new PipelineStage("can-dispatch", new Runnable() {
+            @Override
+            public void run() {
+                canMessageMerger.run();
+                if (canMessageMerger.getHoldNanos() > 0) {
+                    dispatchStage.runAgainAfter(canMessageMerger.getHoldNanos());
+                }
+            }
+        });
+    }
+
+    /**
+     * The raw byte ring, framer & message queue of one source
+     */
+    private final class Source {
+        final SpscByteRing rawByteRing;
+        final ReceiveTimeline receiveTimeline;
+        final SpscRingQueue<CanMessage> canMsgQueue;
+        final CanMessageBuilder canMessageBuilder;
+        final PipelineStage framingStage;
+
+        Source(int index, int rawByteRingCapacity, int canMsgQueueCapacity) {
+            rawByteRing = new SpscByteRing(rawByteRingCapacity);
+            receiveTimeline = new ReceiveTimeline();
+            canMsgQueue = new SpscRingQueue<>(canMsgQueueCapacity);
+            canMessageBuilder = new CanMessageBuilder(rawByteRing, canMsgQueue, index, receiveTimeline);
+            framingStage = new PipelineStage(index == 0 ? "can-framing" : "can-framing-" + index, new Runnable() {
+                @Override
+                public void run() {
+                    canMessageBuilder.run();
+                    if (!canMsgQueue.isEmpty()) {
+                        dispatchStage.signal();
+                    }
+                }
+            });
+        }
+    }
+
+    public void start() {
+        dispatchStage.start();
+        for (Source source : sources) {
+            source.framingStage.start();
+        }
+    }
+
+    public void stop() {
+        for (Source source : sources) {
+            source.framingStage.stop();
+        }
+        dispatchStage.stop();
+    }
+
+    /**
+     * @return the number of sources
+     */
+    public int getSourceCount() {
+        return sources.length;
+    }
+
+    /**
+     * Sets the baud rate of the serial line of a source, which the receive times of the messages in a chunk of
+     * data are interpolated by
+     *
+     * @param sourceIndex the index of the source
+     * @param baudRate    the baud rate, or 0 to give all the messages of a chunk the time of the chunk
+     */
+    public void setBaudRate(int sourceIndex, int baudRate) {
+        sources[sourceIndex].receiveTimeline.setBaudRate(baudRate);
+    }
+
+    /**
+     * Enables or disables resynchronization of a source's framer when the message boundary is lost
+     *
+     * @param sourceIndex the index of the source
+     * @see CanMessageBuilder#setResyncEnabled(boolean)
+     */
+    public void setResyncEnabled(int sourceIndex, boolean resyncEnabled) {
+        sources[sourceIndex].canMessageBuilder.setResyncEnabled(resyncEnabled);
+    }
+
+    /**
+     * @return the number of times the framer of a source has resynchronized
+     */
+    public long getResyncCount(int sourceIndex) {
+        return sources[sourceIndex].canMessageBuilder.getResyncCount();
+    }
+
+    /**
+     * @return the number of raw bytes of a source discarded while resynchronizing
+     */
+    public long getDiscardedByteCount(int sourceIndex) {
+        return sources[sourceIndex].canMessageBuilder.getDiscardedByteCount();
+    }
+
+    /**
+     * Called when raw data has been received from the serial device of the first source. Must always be called by
+     * the same thread. The data is copied, so the caller keeps the array.
+     *
+     * @param data the raw data
+     */
+    public void onNewData(byte[] data) {
+        onNewData(data, 0, data.length);
+    }
+
+    /**
+     * Called when raw data has been received from the serial device of the first source. Must always be called by
+     * the same thread. The data is copied, so the caller keeps the array.
+     */
+    public void onNewData(byte[] data, int offset, int length) {
+        long receivedNanos = System.nanoTime();
+        Source source = sources[0];
+        source.rawByteRing.write(data, offset, length);
+        source.receiveTimeline.mark(source.rawByteRing.getProducedCount(), receivedNanos);
+        source.framingStage.signal();
+    }
+
+    /**
+     * Called when raw data has been received from the serial device of the first source. Must always be called by
+     * the same thread. The remaining bytes of data are copied, so the caller may reuse the buffer as soon as this
+     * method returns.
+     *
+     * @param data the raw data. May be a read only buffer.
+     */
+    public void onNewData(ByteBuffer data) {
+        onNewData(0, data, System.nanoTime());
+    }
+
+    /**
+     * Called when raw data has been received from the serial device of a source. Must always be called by the
+     * same thread for a source. The remaining bytes of data are copied, so the caller may reuse the buffer as soon
+     * as this method returns.
+     *
+     * @param sourceIndex   the index of the source
+     * @param data          the raw data. May be a read only buffer.
+     * @param receivedNanos the {@link System#nanoTime()} at which the data was read from the device
+     */
+    public void onNewData(int sourceIndex, ByteBuffer data, long receivedNanos) {
+        Source source = sources[sourceIndex];
+        source.rawByteRing.write(data);
+        source.receiveTimeline.mark(source.rawByteRing.getProducedCount(), receivedNanos);
+        source.framingStage.signal();
+    }
+
+    /**
+     * Discards the data which is waiting to be framed or dispatched
+     */
+    public void reset() {
+        for (Source source : sources) {
+            source.canMessageBuilder.reset();
+            source.framingStage.signal();
+        }
+        canMessageMerger.reset();
+        dispatchStage.signal();
+    }
+
+    public void setWaitingForSyncAck(boolean waitingForSyncAck) {
+        for (Source source : sources) {
+            source.canMessageBuilder.setWaitingForSyncAck(waitingForSyncAck);
+            source.framingStage.signal();
+        }
+    }
+
+    /**
+     * @return the ring of raw bytes waiting to be framed for the first source. Use it to read the ring's counters.
+     */
+    public SpscByteRing getRawByteRing() {
+        return getRawByteRing(0);
+    }
+
+    /**
+     * @return the ring of raw bytes waiting to be framed for a source. Use it to read the ring's counters.
+     */
+    public SpscByteRing getRawByteRing(int sourceIndex) {
+        return sources[sourceIndex].rawByteRing;
+    }
+
+    /**
+     * @return the queue of CAN messages of the first source waiting to be dispatched. Use it to read the queue's
+     * counters.
+     */
+    public SpscRingQueue<CanMessage> getCanMsgQueue() {
+        return getCanMsgQueue(0);
+    }
+
+    /**
+     * @return the queue of CAN messages of a source waiting to be dispatched. Use it to read the queue's counters.
+     */
+    public SpscRingQueue<CanMessage> getCanMsgQueue(int sourceIndex) {
+        return sources[sourceIndex].canMsgQueue;
+    }
+
+    /**
+     * @return the receive times of the raw bytes of a source. Use it to read the count of dropped marks.
+     */
+    public ReceiveTimeline getReceiveTimeline(int sourceIndex) {
+        return sources[sourceIndex].receiveTimeline;
+    }
+
+    /**
+     * @return the merger of the sources. Use it to read the count of messages which were dispatched late.
+     */
+    public CanMessageMerger getCanMessageMerger() {
+        return canMessageMerger;
+    }
+}
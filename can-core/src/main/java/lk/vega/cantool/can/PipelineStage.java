@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A stage of the CAN message pipeline. The stage owns a thread which sleeps until {@link #signal()} is called, and
+ * then runs its task. Signals which arrive while the task is running cause the task to be run once more, so a
+ * producer only has to signal after it has queued work for the stage.
+ * <p/>
+ * An idle stage is parked and does not wake up until it is signalled, or until the delay asked for with
+ * {@link #runAgainAfter(long)} has passed.
+ */
+public class PipelineStage implements Runnable {
+    private static final String TAG = PipelineStage.class.getSimpleName();
+
+    private final String name;
+    private final Runnable task;
+
+    private final AtomicBoolean signalled = new AtomicBoolean();
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    /**
+     * {@link System#nanoTime()} at which the task is run again without a signal, or 0. Only used on the stage's
+     * thread.
+     */
+    private long wakeUpAt;
+
+    /**
+     * @param name the name of the stage's thread
+     * @param task the task which drains the stage's input. It is only ever run on the stage's thread.
+     */
+    public PipelineStage(String name, Runnable task) {
+        this.name = name;
+        this.task = task;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Pipeline stage " + name + " has already been started");
+        }
+        running = true;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the stage & waits for the task to complete if it is running
+     */
+    public synchronized void stop() {
+        Thread stageThread = thread;
+        if (stageThread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(stageThread);
+        if (stageThread != Thread.currentThread()) {
+            try {
+                stageThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        thread = null;
+    }
+
+    /**
+     * Wakes up the stage so that its task is run
+     */
+    public void signal() {
+        if (signalled.compareAndSet(false, true)) {
+            Thread stageThread = thread;
+            if (stageThread != null) {
+                LockSupport.unpark(stageThread);
+            }
+        }
+    }
+
+    /**
+     * Asks for the task to be run again after a delay, even if the stage is not signalled in the meantime. Used by
+     * a task which holds back work until a deadline. Must only be called by the task.
+     *
+     * @param delayNanos the delay in nanoseconds
+     */
+    public void runAgainAfter(long delayNanos) {
+        long at = System.nanoTime() + Math.max(delayNanos, 1);
+        if (wakeUpAt == 0 || at - wakeUpAt < 0) {
+            wakeUpAt = at;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            boolean due = wakeUpAt != 0 && System.nanoTime() - wakeUpAt >= 0;
+            if (signalled.getAndSet(false) || due) {
+                wakeUpAt = 0;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    CanLog.e(TAG, "Pipeline stage " + name + " task failed", e);
+                }
+            } else if (wakeUpAt != 0) {
+                LockSupport.parkNanos(this, wakeUpAt - System.nanoTime());
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+}
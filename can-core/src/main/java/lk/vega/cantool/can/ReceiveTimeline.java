@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The times at which the raw bytes of a {@link SpscByteRing} were received, from which the time each CAN message was
+ * received is interpolated.
+ * <p/>
+ * The producer marks each chunk it writes to the ring with the time the chunk was read from the adapter, which is
+ * about the time its last byte arrived. The bytes of a chunk arrived one after the other at the rate of the serial
+ * line, so a byte which is n bytes before the end of its chunk arrived n {@link #getByteTimeNanos() byte times}
+ * earlier.
+ * <p/>
+ * The marks are kept in a bounded ring. A mark which does not fit is dropped, and the bytes of its chunk are timed
+ * from the next mark. Only the producer thread of the byte ring may call {@link #mark(long, long)}, and only its
+ * consumer thread may call {@link #timestampOf(long)}.
+ */
+public class ReceiveTimeline {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Bits on the serial line per byte: a start bit, 8 data bits & a stop bit
+     */
+    private static final int BITS_PER_BYTE = 10;
+
+    private final long[] ends;
+    private final long[] timestamps;
+    private final int mask;
+
+    /**
+     * Number of marks ever consumed. Written by the consumer only.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Number of marks ever made. Written by the producer only.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile long byteTimeNanos;
+    private volatile long droppedMarkCount;
+
+    public ReceiveTimeline() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximum number of chunks waiting to be framed which are timed. Rounded up to the next
+     *                 power of two.
+     */
+    public ReceiveTimeline(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        ends = new long[size];
+        timestamps = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Sets the baud rate of the serial line, which the bytes of a chunk are spread out by. 0, the default, gives
+     * all the bytes of a chunk the time of the chunk.
+     *
+     * @param baudRate the baud rate, or 0 if it is not known
+     */
+    public void setBaudRate(int baudRate) {
+        byteTimeNanos = baudRate > 0 ? BITS_PER_BYTE * 1000000000L / baudRate : 0;
+    }
+
+    /**
+     * @return the time it takes to receive a byte, or 0 if the bytes of a chunk are not spread out
+     */
+    public long getByteTimeNanos() {
+        return byteTimeNanos;
+    }
+
+    /**
+     * Marks the end of a chunk which has been written to the byte ring
+     *
+     * @param endPosition    the {@link SpscByteRing#getProducedCount()} after the chunk was written
+     * @param timestampNanos the {@link System#nanoTime()} at which the chunk was read
+     */
+    public void mark(long endPosition, long timestampNanos) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() >= ends.length) {
+            droppedMarkCount++;
+            return;
+        }
+        int index = (int) currentTail & mask;
+        ends[index] = endPosition;
+        timestamps[index] = timestampNanos;
+        tail.lazySet(currentTail + 1);
+    }
+
+    /**
+     * Works out when a byte was received. Positions must be asked for in increasing order, since the marks of the
+     * chunks before a position are discarded.
+     *
+     * @param position the position of the byte in the byte ring, counting from the first byte ever written
+     * @return the {@link System#nanoTime()} at which the byte was received. If the chunk of the byte has not been
+     * marked yet, it has just been written, so the current time is returned.
+     */
+    public long timestampOf(long position) {
+        long currentHead = head.get();
+        long currentTail = tail.get();
+        try {
+            for (; currentHead < currentTail; currentHead++) {
+                int index = (int) currentHead & mask;
+                long end = ends[index];
+                if (end > position) {
+                    return timestamps[index] - (end - 1 - position) * byteTimeNanos;
+                }
+            }
+            return System.nanoTime();
+        } finally {
+            head.lazySet(currentHead);
+        }
+    }
+
+    /**
+     * @return the number of chunks which were not marked, because too many marks were waiting
+     */
+    public long getDroppedMarkCount() {
+        return droppedMarkCount;
+    }
+}
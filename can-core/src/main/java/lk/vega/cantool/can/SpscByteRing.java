@@ -0,0 +1,184 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, lock free byte ring for exactly one producer thread and one consumer thread.
+ * <p/>
+ * Received data is copied straight into the ring, so the producer does not have to hand over an array it owns.
+ * Only the producer thread may call the write methods, and only the consumer thread may call {@link #read} and
+ * {@link #discardUntil(long)}. The counters can be read from any thread.
+ */
+public class SpscByteRing {
+
+    private final byte[] buffer;
+    private final int mask;
+
+    /**
+     * Number of bytes ever read. Written by the consumer only.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Number of bytes ever written. Written by the producer only.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile int highWaterMark;
+    private volatile long droppedCount;
+
+    /**
+     * @param capacity the maximum number of bytes in the ring. Rounded up to the next power of two.
+     */
+    public SpscByteRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Copies as many bytes as fit into the ring. The bytes which do not fit are dropped and counted.
+     *
+     * @return the number of bytes written
+     */
+    public int write(byte[] src, int offset, int length) {
+        long currentTail = tail.get();
+        int count = reserve(currentTail, length);
+        int index = (int) (currentTail & mask);
+        int first = Math.min(count, buffer.length - index);
+        System.arraycopy(src, offset, buffer, index, first);
+        System.arraycopy(src, offset + first, buffer, 0, count - first);
+        publish(currentTail, count);
+        return count;
+    }
+
+    /**
+     * Copies as many of the remaining bytes of src as fit into the ring, advancing the position of src. The bytes
+     * which do not fit are dropped and counted. src may be a read only buffer.
+     *
+     * @return the number of bytes written
+     */
+    public int write(ByteBuffer src) {
+        long currentTail = tail.get();
+        int count = reserve(currentTail, src.remaining());
+        int index = (int) (currentTail & mask);
+        int first = Math.min(count, buffer.length - index);
+        src.get(buffer, index, first);
+        src.get(buffer, 0, count - first);
+        publish(currentTail, count);
+        return count;
+    }
+
+    /**
+     * Copies up to length bytes out of the ring
+     *
+     * @return the number of bytes read, 0 if the ring is empty
+     */
+    public int read(byte[] dest, int offset, int length) {
+        long currentHead = head.get();
+        int count = (int) Math.min(length, tail.get() - currentHead);
+        int index = (int) (currentHead & mask);
+        int first = Math.min(count, buffer.length - index);
+        System.arraycopy(buffer, index, dest, offset, first);
+        System.arraycopy(buffer, 0, dest, offset + first, count - first);
+        head.lazySet(currentHead + count);
+        return count;
+    }
+
+    /**
+     * Drops the bytes which were written before the producer count reached <code>producedCount</code>. Bytes
+     * written afterwards are kept. Must only be called by the consumer thread.
+     *
+     * @param producedCount a value previously returned by {@link #getProducedCount()}
+     */
+    public void discardUntil(long producedCount) {
+        long currentHead = head.get();
+        if (producedCount > currentHead) {
+            head.lazySet(Math.min(producedCount, tail.get()));
+        }
+    }
+
+    /**
+     * @return the number of bytes in the ring
+     */
+    public int available() {
+        // Read head first, so that the result is never negative
+        long currentHead = head.get();
+        return (int) (tail.get() - currentHead);
+    }
+
+    public boolean isEmpty() {
+        return available() == 0;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return the largest number of bytes which were in the ring at the same time
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return the number of bytes which were dropped because the ring was full
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the number of bytes ever written to this ring
+     */
+    public long getProducedCount() {
+        return tail.get();
+    }
+
+    /**
+     * @return the number of bytes ever read from this ring
+     */
+    public long getConsumedCount() {
+        return head.get();
+    }
+
+    private int reserve(long currentTail, int length) {
+        int count = (int) Math.min(length, buffer.length - (currentTail - head.get()));
+        if (count < length) {
+            droppedCount += length - count;
+        }
+        return count;
+    }
+
+    private void publish(long currentTail, int count) {
+        tail.lazySet(currentTail + count);
+        int size = (int) (currentTail + count - head.get());
+        if (size > highWaterMark) {
+            highWaterMark = size;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, lock free queue for exactly one producer thread and one consumer thread.
+ * <p/>
+ * The elements are kept in a fixed size array, so offering and polling neither allocate nor lock. Only the producer
+ * thread may call {@link #offer(Object)} & {@link #add(Object)}, and only the consumer thread may call
+ * {@link #poll()}, {@link #peek()}, {@link #remove()} & {@link #clear()}. The counters can be read from any thread.
+ *
+ * @param <E> the type of the queued elements
+ */
+public class SpscRingQueue<E> extends AbstractQueue<E> {
+
+    private final Object[] buffer;
+    private final int mask;
+
+    /**
+     * Number of elements ever polled. Written by the consumer only.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Number of elements ever offered successfully. Written by the producer only.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    // Producer's view of head & consumer's view of tail, refreshed only when the queue looks full or empty
+    private long headCache;
+    private long tailCache;
+
+    private volatile int highWaterMark;
+    private volatile long rejectedCount;
+
+    /**
+     * @param capacity the maximum number of queued elements. Rounded up to the next power of two.
+     */
+    public SpscRingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new Object[size];
+        mask = size - 1;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long currentTail = tail.get();
+        if (currentTail - headCache >= buffer.length) {
+            headCache = head.get();
+            if (currentTail - headCache >= buffer.length) {
+                rejectedCount++;
+                return false;
+            }
+        }
+        buffer[(int) (currentTail & mask)] = e;
+        tail.lazySet(currentTail + 1);
+
+        int size = (int) (currentTail + 1 - headCache);
+        if (size > highWaterMark) {
+            size = (int) (currentTail + 1 - head.get());
+            if (size > highWaterMark) {
+                highWaterMark = size;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long currentHead = head.get();
+        if (currentHead >= tailCache) {
+            tailCache = tail.get();
+            if (currentHead >= tailCache) {
+                return null;
+            }
+        }
+        int index = (int) (currentHead & mask);
+        E e = (E) buffer[index];
+        buffer[index] = null;
+        head.lazySet(currentHead + 1);
+        return e;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long currentHead = head.get();
+        if (currentHead >= tailCache) {
+            tailCache = tail.get();
+            if (currentHead >= tailCache) {
+                return null;
+            }
+        }
+        return (E) buffer[(int) (currentHead & mask)];
+    }
+
+    /**
+     * Removes the elements which were offered before the producer count reached <code>producedCount</code>.
+     * Elements offered afterwards are kept. Must only be called by the consumer thread.
+     *
+     * @param producedCount a value previously returned by {@link #getProducedCount()}
+     */
+    public void discardUntil(long producedCount) {
+        while (head.get() < producedCount && poll() != null) {
+            // discard
+        }
+    }
+
+    /**
+     * @return the current number of queued elements
+     */
+    @Override
+    public int size() {
+        // Read head first, so that the result is never negative
+        long currentHead = head.get();
+        return (int) (tail.get() - currentHead);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return the largest number of elements which were queued at the same time
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return the number of elements which were not queued because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return the number of elements ever added to this queue
+     */
+    public long getProducedCount() {
+        return tail.get();
+    }
+
+    /**
+     * @return the number of elements ever removed from this queue
+     */
+    public long getConsumedCount() {
+        return head.get();
+    }
+
+    /**
+     * Weakly consistent iterator over the queued elements. Must only be used by the consumer thread, and does not
+     * support removal.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private long position = head.get();
+            private final long end = tail.get();
+
+            @Override
+            public boolean hasNext() {
+                return position < end;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (position >= end) {
+                    throw new NoSuchElementException();
+                }
+                return (E) buffer[(int) (position++ & mask)];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+/**
+ * Priority with which a CAN message is sent. Messages of a higher priority are written to the device before
+ * waiting messages of a lower priority.
+ */
+public enum TransmitPriority {
+
+    /**
+     * Control messages, such as lock and headlamp commands, which must be sent with a predictable latency
+     */
+    HIGH,
+
+    /**
+     * The default priority
+     */
+    NORMAL,
+
+    /**
+     * Bulk messages, such as replays and test bursts
+     */
+    LOW
+}
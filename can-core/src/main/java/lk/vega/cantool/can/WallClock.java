@@ -0,0 +1,75 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps {@link System#nanoTime()} timestamps, such as {@link CanMessage#getTimestampNanos()}, to wall clock time.
+ * <p/>
+ * nanoTime is monotonic but has no fixed origin, while the wall clock has an origin but may be set, for example by
+ * network time. The mapping is anchored by reading both clocks once, and moves only when it is re-anchored with
+ * {@link #resync()}, so the timestamps of a capture keep their spacing.
+ */
+public final class WallClock {
+
+    private static volatile Anchor anchor = new Anchor();
+
+    private WallClock() {
+    }
+
+    private static final class Anchor {
+        final long millis;
+        final long nanos;
+
+        Anchor() {
+            // Reading nanoTime on both sides of the wall clock halves the error of the pairing
+            long before = System.nanoTime();
+            long wallMillis = System.currentTimeMillis();
+            long after = System.nanoTime();
+            this.millis = wallMillis;
+            this.nanos = before + (after - before) / 2;
+        }
+    }
+
+    /**
+     * @param timestampNanos a {@link System#nanoTime()} timestamp
+     * @return the wall clock time in milliseconds since the epoch
+     */
+    public static long toMillis(long timestampNanos) {
+        Anchor current = anchor;
+        return current.millis + TimeUnit.NANOSECONDS.toMillis(timestampNanos - current.nanos);
+    }
+
+    /**
+     * @param timestampNanos a {@link System#nanoTime()} timestamp
+     * @return the wall clock time in microseconds since the epoch
+     */
+    public static long toMicros(long timestampNanos) {
+        Anchor current = anchor;
+        return TimeUnit.MILLISECONDS.toMicros(current.millis) +
+                TimeUnit.NANOSECONDS.toMicros(timestampNanos - current.nanos);
+    }
+
+    /**
+     * Re-anchors the mapping to the wall clock, for example at the start of a capture after the wall clock has
+     * been set
+     */
+    public static void resync() {
+        anchor = new Anchor();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can.messages;
+
+import lk.vega.cantool.can.CanMessage;
+import lk.vega.cantool.can.CanMessageWriter;
+import lk.vega.cantool.can.TransmitPriority;
+
+/**
+ * TODO: Class comments
+ */
+public abstract class CanMessageBroker {
+
+    private CanMessageWriter messageWriter;
+    private TransmitPriority transmitPriority = TransmitPriority.NORMAL;
+
+    /**
+     * Called on the dispatch thread for each received message. The message is recycled when this method returns,
+     * so a broker which keeps the message, or hands it to another thread, must keep a {@link CanMessage#copy()}.
+     *
+     * @param canMessage the received message
+     */
+    public abstract void messageReceived(CanMessage canMessage);
+
+    /**
+     * Queues a message for sending to the device with the priority of this broker's template
+     *
+     * @return false if the message was not queued, because there is no writer or too many messages are waiting to
+     * be written. The caller should slow down.
+     */
+    public boolean sendMessage(CanMessage canMessage){
+        return sendMessage(canMessage, transmitPriority);
+    }
+
+    /**
+     * Queues a message for sending to the device with the given priority
+     *
+     * @return false if the message was not queued, because there is no writer or too many messages of this
+     * priority are waiting to be written. The caller should slow down.
+     */
+    public boolean sendMessage(CanMessage canMessage, TransmitPriority priority){
+        return messageWriter != null && messageWriter.writeAsync(canMessage.getRaw(), priority);
+    }
+
+    public TransmitPriority getTransmitPriority() {
+        return transmitPriority;
+    }
+
+    /**
+     * Sets the priority of messages sent without a priority. Set from the template when the broker is loaded.
+     */
+    public void setTransmitPriority(TransmitPriority transmitPriority) {
+        this.transmitPriority = transmitPriority;
+    }
+
+    public void setMessageWriter(CanMessageWriter messageWriter){
+        this.messageWriter = messageWriter;
+    }
+}
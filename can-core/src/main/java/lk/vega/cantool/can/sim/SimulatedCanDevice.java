@@ -0,0 +1,458 @@
+/*
+ * (C) Copyright 2015 CodeGen International (http://codegen.net) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Afkham Azeez (afkham@gmail.com)
+ */
+package lk.vega.cantool.can.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import lk.vega.cantool.can.CanMessage;
+
+/**
+ * An in-memory CAN adapter, for running the pipeline without a device. It has no platform dependencies, so load
+ * tests run on a plain JVM, and the app wraps it in a serial port to run the full stack on a phone.
+ * <p/>
+ * Reads return the bytes of a {@link TrafficSource}, paced at a byte rate in chunks of a configurable size with
+ * random jitter. Bytes which are {@link #inject(byte[]) injected} are returned ahead of the traffic. Everything
+ * written to the device is recorded. When a sync handshake is configured, writing the sync sequence makes the
+ * device answer with the sync ACK, and realign the traffic to a frame boundary, like the CAN adapter does.
+ * <p/>
+ * The settings are read by the reading thread, and should be changed before the device is opened.
+ */
+public class SimulatedCanDevice {
+
+    /**
+     * Default maximum number of bytes returned by a read, the payload of a full speed FTDI bulk packet
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 62;
+
+    /**
+     * Produces the bytes the simulated device sends
+     */
+    public interface TrafficSource {
+
+        /**
+         * @return the number of bytes put into dest, or -1 if there is no more traffic
+         */
+        int next(byte[] dest, int offset, int length);
+
+        /**
+         * Called when the host has synced with the device. Sources which send frames continue from a frame boundary.
+         */
+        void onSync();
+    }
+
+    /**
+     * Notified of every chunk returned by {@link #read(byte[], int)}, for measuring latency
+     */
+    public interface ChunkListener {
+        void onChunk(byte[] data, int length, long nanoTime);
+    }
+
+    private final TrafficSource source;
+
+    private volatile int byteRate;
+    private volatile int baudRate;
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile int jitterMillis;
+    private volatile ChunkListener chunkListener;
+    private Random jitterRandom = new Random(0);
+
+    private byte[] sync;
+    private byte[] syncAck;
+    private boolean holdUntilSync;
+
+    /**
+     * Guards the traffic source, the injected bytes and the sync state
+     */
+    private final Object rxLock = new Object();
+    private final ArrayDeque<byte[]> injected = new ArrayDeque<>();
+    private int injectedOffset;
+    private boolean synced;
+
+    /**
+     * Guards the recorded writes and the sync detector
+     */
+    private final Object txLock = new Object();
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private byte[] syncWindow;
+    private int syncWindowCount;
+
+    private volatile boolean open;
+    private long nextChunkNanos;
+
+    public SimulatedCanDevice(TrafficSource source) {
+        this.source = source;
+    }
+
+    /**
+     * @param bytesPerSecond the rate at which traffic is returned, or 0 to derive it from the baud rate set with
+     *                       {@link #setBaudRate(int)}. Without either, traffic is returned as fast as it is read.
+     */
+    public void setByteRate(int bytesPerSecond) {
+        byteRate = bytesPerSecond;
+    }
+
+    /**
+     * @param baudRate the baud rate of the serial line, which paces the traffic at 10 bits per byte when no byte
+     *                 rate is set
+     */
+    public void setBaudRate(int baudRate) {
+        this.baudRate = baudRate;
+    }
+
+    /**
+     * @param chunkSize the maximum number of bytes returned by a read, as with the USB packet size of a device
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param jitterMillis the maximum random delay added to each chunk
+     * @param seed         seed of the jitter, so runs are repeatable
+     */
+    public void setJitter(int jitterMillis, long seed) {
+        this.jitterMillis = jitterMillis;
+        this.jitterRandom = new Random(seed);
+    }
+
+    /**
+     * Emulates the sync handshake of the CAN adapter
+     *
+     * @param sync          the sequence the host writes to sync, for example {@code CanConstants.CAN_SYNC}
+     * @param syncAck       the sequence the device answers with, for example {@code CanConstants.CAN_SYNC_ACK}
+     * @param holdUntilSync if true, no traffic is sent until the host has synced
+     */
+    public void setSyncHandshake(byte[] sync, byte[] syncAck, boolean holdUntilSync) {
+        synchronized (txLock) {
+            this.sync = sync.clone();
+            this.syncWindow = new byte[sync.length];
+            this.syncWindowCount = 0;
+        }
+        synchronized (rxLock) {
+            this.syncAck = syncAck.clone();
+            this.holdUntilSync = holdUntilSync;
+            this.synced = false;
+        }
+    }
+
+    public void setChunkListener(ChunkListener listener) {
+        chunkListener = listener;
+    }
+
+    /**
+     * Queues bytes to be returned by the next reads, ahead of the traffic
+     */
+    public void inject(byte[] data) {
+        synchronized (rxLock) {
+            injected.add(data.clone());
+        }
+    }
+
+    /**
+     * @return a copy of all the bytes written to this device
+     */
+    public byte[] getWrittenBytes() {
+        synchronized (txLock) {
+            return written.toByteArray();
+        }
+    }
+
+    public void clearWrittenBytes() {
+        synchronized (txLock) {
+            written.reset();
+        }
+    }
+
+    /**
+     * @return true if the host has written the sync sequence
+     */
+    public boolean isSynced() {
+        synchronized (rxLock) {
+            return synced;
+        }
+    }
+
+    public void open() throws IOException {
+        if (open) {
+            throw new IOException("Already open");
+        }
+        nextChunkNanos = System.nanoTime();
+        open = true;
+    }
+
+    public void close() throws IOException {
+        if (!open) {
+            throw new IOException("Already closed");
+        }
+        open = false;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Waits until the next chunk is due, and returns it
+     *
+     * @param dest          the destination buffer
+     * @param timeoutMillis how long to wait for the next chunk, or 0 to wait as long as it takes
+     * @return the number of bytes read, 0 on timeout
+     * @throws IOException if the device is not open, or the reading thread is interrupted
+     */
+    public int read(byte[] dest, int timeoutMillis) throws IOException {
+        checkOpen();
+        int len = readInjected(dest);
+        if (len > 0) {
+            return notifyChunk(dest, len);
+        }
+
+        long now = System.nanoTime();
+        long timeoutNanos = timeoutMillis > 0 ? timeoutMillis * 1000000L : Long.MAX_VALUE;
+        long waitNanos = nextChunkNanos - now;
+        if (waitNanos > timeoutNanos) {
+            sleepNanos(timeoutNanos);
+            return notifyChunk(dest, readInjected(dest));
+        }
+        sleepNanos(waitNanos);
+
+        synchronized (rxLock) {
+            len = readInjected(dest);
+            if (len == 0 && (synced || !holdUntilSync)) {
+                len = Math.max(0, source.next(dest, 0, Math.min(chunkSize, dest.length)));
+            }
+        }
+        if (len == 0) {
+            // Nothing to send, either the traffic has ended or the device waits for the host to sync
+            sleepNanos(Math.min(timeoutNanos, 10000000L));
+            return 0;
+        }
+        nextChunkNanos = Math.max(nextChunkNanos, now) + chunkNanos(len);
+        return notifyChunk(dest, len);
+    }
+
+    /**
+     * Records the written bytes, and answers the sync sequence
+     *
+     * @return the number of bytes written, which is always length
+     * @throws IOException if the device is not open
+     */
+    public int write(byte[] src, int offset, int length) throws IOException {
+        checkOpen();
+        boolean syncWritten = false;
+        synchronized (txLock) {
+            written.write(src, offset, length);
+            if (sync != null) {
+                for (int i = offset; i < offset + length; i++) {
+                    syncWritten |= matchSync(src[i]);
+                }
+            }
+        }
+        if (syncWritten) {
+            synchronized (rxLock) {
+                synced = true;
+                source.onSync();
+                injected.add(syncAck);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Discards the injected bytes which have not been read yet
+     */
+    public void purgeInjected() {
+        synchronized (rxLock) {
+            injected.clear();
+            injectedOffset = 0;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (!open) {
+            throw new IOException("Device not open");
+        }
+    }
+
+    private int readInjected(byte[] dest) {
+        synchronized (rxLock) {
+            int len = 0;
+            while (len < dest.length && !injected.isEmpty()) {
+                byte[] head = injected.peek();
+                int count = Math.min(dest.length - len, head.length - injectedOffset);
+                System.arraycopy(head, injectedOffset, dest, len, count);
+                len += count;
+                injectedOffset += count;
+                if (injectedOffset == head.length) {
+                    injected.poll();
+                    injectedOffset = 0;
+                }
+            }
+            return len;
+        }
+    }
+
+    /**
+     * Slides the written byte into the sync window. Guarded by {@link #txLock}.
+     *
+     * @return true if the window now holds the sync sequence
+     */
+    private boolean matchSync(byte b) {
+        int length = syncWindow.length;
+        if (syncWindowCount == length) {
+            System.arraycopy(syncWindow, 1, syncWindow, 0, length - 1);
+            syncWindowCount--;
+        }
+        syncWindow[syncWindowCount++] = b;
+        if (syncWindowCount == length && Arrays.equals(syncWindow, sync)) {
+            syncWindowCount = 0;
+            return true;
+        }
+        return false;
+    }
+
+    private long chunkNanos(int len) {
+        int rate = byteRate > 0 ? byteRate : baudRate / 10;
+        long nanos = rate > 0 ? len * 1000000000L / rate : 0;
+        if (jitterMillis > 0) {
+            nanos += jitterRandom.nextInt(jitterMillis + 1) * 1000000L;
+        }
+        return nanos;
+    }
+
+    private int notifyChunk(byte[] data, int len) {
+        ChunkListener listener = chunkListener;
+        if (listener != null && len > 0) {
+            listener.onChunk(data, len, System.nanoTime());
+        }
+        return len;
+    }
+
+    private static void sleepNanos(long nanos) throws IOException {
+        long deadline = System.nanoTime() + nanos;
+        while (nanos > 0) {
+            LockSupport.parkNanos(nanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Interrupted while reading");
+            }
+            nanos = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * Sends a fixed sequence of bytes, once or repeatedly
+     */
+    public static class ScriptedTraffic implements TrafficSource {
+        private final byte[] script;
+        private final boolean loop;
+        private int offset;
+
+        public ScriptedTraffic(byte[] script, boolean loop) {
+            this.script = script.clone();
+            this.loop = loop;
+        }
+
+        @Override
+        public int next(byte[] dest, int destOffset, int length) {
+            if (offset == script.length) {
+                if (!loop || script.length == 0) {
+                    return -1;
+                }
+                offset = 0;
+            }
+            int count = Math.min(length, script.length - offset);
+            System.arraycopy(script, offset, dest, destOffset, count);
+            offset += count;
+            return count;
+        }
+
+        @Override
+        public void onSync() {
+        }
+    }
+
+    /**
+     * Sends random CAN frames of a 2 byte big endian ID followed by 8 data bytes
+     */
+    public static class RandomCanTraffic implements TrafficSource {
+        private final Random random;
+        private final int[] ids;
+        private final byte[] frame = new byte[CanMessage.CAN_MSG_SIZE_BYTES];
+        private int frameOffset = CanMessage.CAN_MSG_SIZE_BYTES;
+        private long frameCount;
+
+        /**
+         * @param seed seed of the traffic, so runs are repeatable
+         * @param ids  the IDs to send, or null for any 11 bit standard ID
+         */
+        public RandomCanTraffic(long seed, int[] ids) {
+            this.random = new Random(seed);
+            this.ids = ids != null ? ids.clone() : null;
+        }
+
+        @Override
+        public int next(byte[] dest, int offset, int length) {
+            int count = 0;
+            while (count < length) {
+                if (frameOffset == frame.length) {
+                    nextFrame();
+                }
+                int n = Math.min(length - count, frame.length - frameOffset);
+                System.arraycopy(frame, frameOffset, dest, offset + count, n);
+                frameOffset += n;
+                count += n;
+            }
+            return count;
+        }
+
+        @Override
+        public void onSync() {
+            frameOffset = frame.length;
+        }
+
+        /**
+         * @return the number of frames started so far
+         */
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        private void nextFrame() {
+            int id = ids != null ? ids[random.nextInt(ids.length)] : random.nextInt(1 << 11);
+            frame[0] = (byte) (id >>> 8);
+            frame[1] = (byte) id;
+            for (int i = CanMessage.CAN_MSG_ID_SIZE_BYTES; i < frame.length; i++) {
+                frame[i] = (byte) random.nextInt(256);
+            }
+            frameOffset = 0;
+            frameCount++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<" + getClass().getSimpleName() + " source=" + source.getClass().getSimpleName() + ">";
+    }
+}
@@ -14,7 +14,7 @@
  * limitations under the License.
  */
 
-package lk.vega.usbserial.util;
+package lk.vega.cantool.util;
 
 /**
  * Clone of Android's HexDump class, for use in debugging. Cosmetic changes